@@ -0,0 +1,89 @@
+package br.ufsc.egc.rudger.expertprofiling.benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import br.ufsc.egc.rudger.expertprofiling.normalizer.DefaultNormalizer;
+
+/**
+ * Compares the folding table of the {@link DefaultNormalizer} with the normalization it replaced, over tokens as they
+ * come from the documents, English and Portuguese words, some of them capitalized or accented, either as they are or
+ * already lower cased.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DefaultNormalizerBenchmark {
+
+    private static final String[] WORDS = { "knowledge", "management", "engineering", "Ontology", "Semantic", "Web", "conhecimento",
+            "gestão", "informação", "ciência", "organização", "análise", "educação", "Florianópolis", "Santa", "Catarina" };
+
+    @Param({ "lowercase", "original" })
+    public String tokens;
+
+    private final DefaultNormalizer normalizer = new DefaultNormalizer();
+
+    private final StringBuilder buffer = new StringBuilder();
+
+    private String[] values;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        this.values = new String[1024];
+        for (int i = 0; i < this.values.length; i++) {
+            String word = WORDS[random.nextInt(WORDS.length)];
+            this.values[i] = "lowercase".equals(this.tokens) ? word.toLowerCase() : word;
+        }
+    }
+
+    /**
+     * The normalization before the folding table
+     */
+    private static String previousNormalize(final String value) {
+        String text = java.text.Normalizer.normalize(value, java.text.Normalizer.Form.NFD);
+        text = text.replaceAll("[^\\p{ASCII}]", "");
+
+        return text.toLowerCase();
+    }
+
+    @Benchmark
+    public void previous(final Blackhole blackhole) {
+        for (String value : this.values) {
+            blackhole.consume(previousNormalize(value));
+        }
+    }
+
+    @Benchmark
+    public void foldingTable(final Blackhole blackhole) {
+        for (String value : this.values) {
+            blackhole.consume(this.normalizer.normalize(value));
+        }
+    }
+
+    @Benchmark
+    public void foldingTableIntoBuffer(final Blackhole blackhole) {
+        for (String value : this.values) {
+            this.buffer.setLength(0);
+            this.normalizer.normalize(value, this.buffer);
+            blackhole.consume(this.buffer);
+        }
+    }
+
+}
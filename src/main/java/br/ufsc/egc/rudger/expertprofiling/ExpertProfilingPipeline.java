@@ -2,6 +2,7 @@ package br.ufsc.egc.rudger.expertprofiling;
 
 import static org.apache.uima.fit.factory.AnalysisEngineFactory.createEngineDescription;
 import static org.apache.uima.fit.factory.CollectionReaderFactory.createReaderDescription;
+import static org.apache.uima.fit.factory.ExternalResourceFactory.createExternalResourceDescription;
 
 import java.io.File;
 import java.io.IOException;
@@ -19,6 +20,7 @@ import org.apache.uima.UIMAException;
 import org.apache.uima.analysis_engine.AnalysisEngineDescription;
 import org.apache.uima.collection.CollectionReaderDescription;
 import org.apache.uima.fit.pipeline.SimplePipeline;
+import org.apache.uima.resource.ExternalResourceDescription;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -30,6 +32,7 @@ import br.ufsc.egc.rudger.expertprofiling.nlp.io.DocumentReader;
 import br.ufsc.egc.rudger.expertprofiling.nlp.stopword.StopWordAnnotator;
 import br.ufsc.egc.rudger.expertprofiling.nlp.types.Organization;
 import br.ufsc.egc.rudger.expertprofiling.nlp.types.Person;
+import br.ufsc.egc.rudger.expertprofiling.stopword.StopWordSet;
 import de.tudarmstadt.ukp.dkpro.core.dictionaryannotator.DictionaryAnnotator;
 import de.tudarmstadt.ukp.dkpro.core.io.xmi.XmiWriter;
 import de.tudarmstadt.ukp.dkpro.core.opennlp.OpenNlpSegmenter;
@@ -53,6 +56,8 @@ public class ExpertProfilingPipeline {
 
         private String sourceLocation;
 
+        private String dbpediaIndexBundle;
+
         private boolean useXmiDumper;
         private boolean useHeidelTime;
         private boolean createNewAnnotationIndex;
@@ -121,6 +126,14 @@ public class ExpertProfilingPipeline {
             this.sourceLocation = sourceLocation;
         }
 
+        public String getDbpediaIndexBundle() {
+            return this.dbpediaIndexBundle;
+        }
+
+        public void setDbpediaIndexBundle(final String dbpediaIndexBundle) {
+            this.dbpediaIndexBundle = dbpediaIndexBundle;
+        }
+
         public boolean isUseXmiDumper() {
             return this.useXmiDumper;
         }
@@ -175,16 +188,22 @@ public class ExpertProfilingPipeline {
         engines.add(tokenizer);
         
         if(config.stopWordFiles != null && !config.stopWordFiles.isEmpty()){
+            ExternalResourceDescription stopWords = createExternalResourceDescription(
+                    StopWordSet.class,
+                    config.stopWordFiles.get(0),
+                    StopWordSet.PARAM_ADDITIONAL_LOCATIONS, config.stopWordFiles.subList(1, config.stopWordFiles.size()));
+            
             AnalysisEngineDescription stopword = createEngineDescription(
                     StopWordAnnotator.class,
-                    StopWordAnnotator.PARAM_MODEL_LOCATION, config.stopWordFiles);
+                    StopWordAnnotator.RES_STOP_WORDS, stopWords);
             engines.add(stopword);
         }
 
         AnalysisEngineDescription dbpedia = createEngineDescription(
                 DbpediaAnnotator.class,
                 DbpediaAnnotator.PARAM_DBPEDIA_LINKS, config.dppediaFiles,
-                DbpediaAnnotator.PARAM_DBPEDIA_INDEX_PATH, ExpertProfilingUtil.getPath("dbpedia_index"));
+                DbpediaAnnotator.PARAM_DBPEDIA_INDEX_PATH, ExpertProfilingUtil.getPath("dbpedia_index"),
+                DbpediaAnnotator.PARAM_INDEX_BUNDLE, config.dbpediaIndexBundle);
         engines.add(dbpedia);
         
         if(config.useHeidelTime){
@@ -231,6 +250,7 @@ public class ExpertProfilingPipeline {
                 Lucene2ProfilePage.PARAM_OWNER_CODE, config.userCode,
                 Lucene2ProfilePage.PARAM_OWNER_NAME, config.userName,
                 Lucene2ProfilePage.PARAM_INDEX_PATH, ExpertProfilingUtil.getPath("document_annotation_index"),
+                Lucene2ProfilePage.PARAM_DBPEDIA_INDEX_PATH, ExpertProfilingUtil.getPath("dbpedia_index"),
                 Lucene2ProfilePage.PARAM_VELOCITY_TEMPLATE_FILE, "/templates/profile.html",
                 Lucene2ProfilePage.PARAM_TARGET_FILE, targetFile);
         engines.add(timelineJsWriter);
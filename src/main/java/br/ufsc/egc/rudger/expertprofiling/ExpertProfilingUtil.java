@@ -37,6 +37,9 @@ class ExpertProfilingUtil {
 
         config.setCreateNewAnnotationIndex(true);
 
+        // a prebuilt DBpedia index, imported on the first run instead of downloading the dumps
+        config.setDbpediaIndexBundle(System.getProperty("expertprofiling.dbpediaIndexBundle"));
+
         return config;
     }
 
@@ -0,0 +1,209 @@
+package br.ufsc.egc.rudger.expertprofiling.concurrent;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToIntFunction;
+
+/**
+ * A thread-safe least recently used cache bounded by the total weight of its values. The entries are spread over
+ * independently locked segments, so concurrent readers of different keys seldom contend. Values are loaded outside the
+ * locks, hence two threads missing the same key at the same time may both load it.
+ *
+ * @param <K> the key type
+ * @param <V> the value type
+ */
+public class LruCache<K, V> {
+
+    /**
+     * Computes the value of a key absent from the cache.
+     */
+    public interface Loader<K, V> {
+
+        V load(K key) throws IOException;
+
+    }
+
+    private static final int SEGMENTS = 16;
+
+    private final Segment<K, V>[] segments;
+
+    private final ToIntFunction<V> weigher;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder loadTime = new LongAdder();
+
+    /**
+     * Creates a cache holding at most the given number of values.
+     */
+    public LruCache(final long maxSize) {
+        this(maxSize, value -> 1);
+    }
+
+    /**
+     * Creates a cache whose values weigh at most the given total, as computed by the weigher.
+     */
+    public LruCache(final long maxWeight, final ToIntFunction<V> weigher) {
+        if (maxWeight <= 0) {
+            throw new IllegalArgumentException("Invalid cache weight " + maxWeight);
+        }
+
+        this.weigher = weigher;
+        this.segments = newSegments(SEGMENTS);
+        for (int i = 0; i < SEGMENTS; i++) {
+            this.segments[i] = new Segment<>(Math.max(1, maxWeight / SEGMENTS));
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <K, V> Segment<K, V>[] newSegments(final int size) {
+        return (Segment<K, V>[]) new Segment<?, ?>[size];
+    }
+
+    /**
+     * Returns the cached value of the key, loading and caching it when absent. Null values are returned but not cached.
+     */
+    public V get(final K key, final Loader<K, V> loader) throws IOException {
+        Segment<K, V> segment = this.segmentFor(key);
+
+        V value;
+        synchronized (segment) {
+            value = segment.map.get(key);
+        }
+
+        if (value != null) {
+            this.hits.increment();
+            return value;
+        }
+
+        this.misses.increment();
+
+        long start = System.nanoTime();
+        value = loader.load(key);
+        this.loadTime.add(System.nanoTime() - start);
+
+        if (value != null) {
+            this.put(segment, key, value);
+        }
+        return value;
+    }
+
+    /**
+     * Returns the cached value of the key, or null if it is absent. The lookup counts as a hit or a miss.
+     */
+    public V getIfPresent(final K key) {
+        Segment<K, V> segment = this.segmentFor(key);
+
+        V value;
+        synchronized (segment) {
+            value = segment.map.get(key);
+        }
+
+        if (value != null) {
+            this.hits.increment();
+        } else {
+            this.misses.increment();
+        }
+        return value;
+    }
+
+    /**
+     * Caches a value loaded by the caller after a {@link #getIfPresent(Object)} miss, adding the time spent loading it.
+     */
+    public void put(final K key, final V value, final long loadTime) {
+        this.loadTime.add(loadTime);
+        this.put(this.segmentFor(key), key, value);
+    }
+
+    public void clear() {
+        for (Segment<K, V> segment : this.segments) {
+            synchronized (segment) {
+                segment.map.clear();
+                segment.weight = 0;
+            }
+        }
+    }
+
+    public long size() {
+        long size = 0;
+        for (Segment<K, V> segment : this.segments) {
+            synchronized (segment) {
+                size += segment.map.size();
+            }
+        }
+        return size;
+    }
+
+    public long getHits() {
+        return this.hits.sum();
+    }
+
+    public long getMisses() {
+        return this.misses.sum();
+    }
+
+    public double getHitRate() {
+        long hits = this.getHits();
+        long requests = hits + this.getMisses();
+        return requests == 0 ? 0 : (double) hits / requests;
+    }
+
+    public long getEvictions() {
+        return this.evictions.sum();
+    }
+
+    /**
+     * @return the total time spent loading the missing values, in nanoseconds
+     */
+    public long getLoadTime() {
+        return this.loadTime.sum();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("size=%d, hits=%d, misses=%d, hitRate=%.4f, evictions=%d, loadTime=%dms", this.size(), this.getHits(), this.getMisses(),
+                this.getHitRate(), this.getEvictions(), this.getLoadTime() / 1000000);
+    }
+
+    private void put(final Segment<K, V> segment, final K key, final V value) {
+        int weight = this.weigher.applyAsInt(value);
+
+        synchronized (segment) {
+            V previous = segment.map.put(key, value);
+            segment.weight += weight;
+            if (previous != null) {
+                segment.weight -= this.weigher.applyAsInt(previous);
+            }
+
+            // evict the least recently used entries, but always keep the one just added
+            Iterator<Map.Entry<K, V>> it = segment.map.entrySet().iterator();
+            while (segment.weight > segment.maxWeight && segment.map.size() > 1) {
+                Map.Entry<K, V> eldest = it.next();
+                segment.weight -= this.weigher.applyAsInt(eldest.getValue());
+                it.remove();
+                this.evictions.increment();
+            }
+        }
+    }
+
+    private Segment<K, V> segmentFor(final K key) {
+        int h = key.hashCode();
+        h ^= h >>> 16;
+        return this.segments[h & (SEGMENTS - 1)];
+    }
+
+    private static class Segment<K, V> {
+        final LinkedHashMap<K, V> map = new LinkedHashMap<>(16, 0.75f, true);
+        final long maxWeight;
+        long weight;
+
+        Segment(final long maxWeight) {
+            this.maxWeight = maxWeight;
+        }
+    }
+
+}
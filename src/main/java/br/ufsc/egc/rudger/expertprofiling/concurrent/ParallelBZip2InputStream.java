@@ -0,0 +1,446 @@
+package br.ufsc.egc.rudger.expertprofiling.concurrent;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorInputStream;
+import org.apache.commons.io.IOUtils;
+
+/**
+ * Decompresses a bzip2 stream using several threads. The compressed blocks are delimited by scanning the bit stream for
+ * the block and end of stream magic numbers, then each block is wrapped as a standalone bzip2 stream and decompressed
+ * by the executor. The decompressed blocks are returned in order, with a bounded number of them in flight.
+ *
+ * A magic number may also appear by chance inside a block. The two halves of the block then fail to decompress on
+ * their own, so a failed block is joined with the following one and decompressed again. An end of stream magic is only
+ * taken as the end of the current block once the stream CRC after it is followed by the end of the input or by the
+ * header of another stream, otherwise the block goes on.
+ *
+ * The CRC of each stream is checked against the CRCs of its blocks, and an input ending before the end of a stream
+ * fails once the blocks before the end are read.
+ */
+public class ParallelBZip2InputStream extends InputStream {
+
+    private static final long BLOCK_MAGIC = 0x314159265359L;
+    private static final long END_OF_STREAM_MAGIC = 0x177245385090L;
+    private static final long MAGIC_MASK = 0xFFFFFFFFFFFFL;
+    private static final int MAGIC_BITS = 48;
+    private static final int CRC_BITS = 32;
+
+    private static final long STREAM_HEADER = 'B' << 16 | 'Z' << 8 | 'h';
+
+    // the largest block size, which any block of the input fits into
+    private static final byte[] HEADER = {'B', 'Z', 'h', '9'};
+
+    private static final int READ_SIZE = 1 << 16;
+
+    private final InputStream in;
+
+    private final ExecutorService executor;
+
+    private final int maxInFlight;
+
+    private final Deque<PendingBlock> pending = new ArrayDeque<>();
+
+    /*
+     * The compressed bytes not consumed yet. raw[0] is the byte at rawStart of the input.
+     */
+    private byte[] raw = new byte[READ_SIZE * 4];
+    private int rawLength;
+    private long rawStart;
+
+    /*
+     * The number of bytes read from the input, the last 8 of them, the bit position of the current block magic (-1
+     * between streams) and the one of an end of stream magic found after it and not confirmed yet (-1 if none)
+     */
+    private long bytesRead;
+    private long lastBytes;
+    private long blockStart = -1;
+    private long endOfStream = -1;
+
+    /*
+     * Whether the header of a stream was read and its end not yet, and the CRC combined from the blocks of the stream
+     * taken so far
+     */
+    private boolean inStream;
+    private int streamCrc;
+
+    private boolean eof;
+
+    // thrown once the blocks before the end of a truncated input are read
+    private IOException truncated;
+
+    private byte[] current;
+    private int position;
+
+    /**
+     * @param in the bzip2 stream, which may be a concatenation of bzip2 streams
+     * @param executor the executor decompressing the blocks
+     * @param maxInFlight the maximum number of blocks being decompressed or waiting to be read, about 1 MB each
+     */
+    public ParallelBZip2InputStream(final InputStream in, final ExecutorService executor, final int maxInFlight) throws IOException {
+        this.in = in;
+        this.executor = executor;
+        this.maxInFlight = Math.max(1, maxInFlight);
+
+        byte[] header = new byte[3];
+        int n = 0;
+        while (n < header.length) {
+            int read = in.read(header, n, header.length - n);
+            if (read < 0) {
+                break;
+            }
+            n += read;
+        }
+
+        if (n != header.length || header[0] != 'B' || header[1] != 'Z' || header[2] != 'h') {
+            throw new IOException("Stream is not in the BZip2 format");
+        }
+        this.append(header, n);
+        this.inStream = true;
+        this.scan(0, n);
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!this.ensureData()) {
+            return -1;
+        }
+        return this.current[this.position++] & 0xFF;
+    }
+
+    @Override
+    public int read(final byte[] b, final int off, final int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (!this.ensureData()) {
+            return -1;
+        }
+
+        int n = Math.min(len, this.current.length - this.position);
+        System.arraycopy(this.current, this.position, b, off, n);
+        this.position += n;
+        return n;
+    }
+
+    @Override
+    public int available() {
+        return this.current != null ? this.current.length - this.position : 0;
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (PendingBlock block : this.pending) {
+            block.result.cancel(true);
+        }
+        this.pending.clear();
+        this.in.close();
+    }
+
+    private boolean ensureData() throws IOException {
+        while (this.current == null || this.position == this.current.length) {
+            this.fillPending();
+
+            PendingBlock head = this.pending.poll();
+            if (head == null) {
+                if (this.truncated != null) {
+                    throw this.truncated;
+                }
+                return false;
+            }
+
+            this.current = this.take(head);
+            this.position = 0;
+        }
+        return true;
+    }
+
+    private byte[] take(final PendingBlock head) throws IOException {
+        Block block = head.block;
+        PendingBlock last = head;
+        byte[] data = null;
+        IOException failure = null;
+        try {
+            data = head.result.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while decompressing");
+        } catch (ExecutionException e) {
+            failure = e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+        }
+
+        // the block was split by a magic number found inside it, so join it with the following blocks
+        while (data == null) {
+            this.fillPending();
+
+            PendingBlock next = this.pending.poll();
+            if (next == null) {
+                throw failure;
+            }
+            next.result.cancel(true);
+
+            block = Block.concat(block, next.block);
+            last = next;
+            try {
+                data = decompress(block);
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+
+        int blockCrc = (int) block.readBits(MAGIC_BITS, CRC_BITS);
+        this.streamCrc = (this.streamCrc << 1 | this.streamCrc >>> 31) ^ blockCrc;
+        if (last.endsStream) {
+            if (this.streamCrc != last.storedStreamCrc) {
+                throw new IOException("BZip2 stream CRC error: expected " + Integer.toHexString(last.storedStreamCrc) + " but found "
+                        + Integer.toHexString(this.streamCrc));
+            }
+            this.streamCrc = 0;
+        }
+        return data;
+    }
+
+    private void fillPending() throws IOException {
+        while (this.pending.size() < this.maxInFlight && !this.eof) {
+            byte[] buffer = new byte[READ_SIZE];
+            int n = this.in.read(buffer);
+            if (n < 0) {
+                this.eof = true;
+                // the last stream ends at the end of the input, otherwise the input was truncated
+                boolean ended = this.endOfStream >= 0 && this.bytesRead == streamEnd(this.endOfStream);
+                if (ended && this.blockStart >= 0) {
+                    this.submit(this.blockStart, this.endOfStream, true);
+                }
+                if (this.inStream && !ended) {
+                    this.truncated = new IOException("Truncated BZip2 stream: no end of stream after " + this.bytesRead + " bytes");
+                }
+                this.inStream = false;
+                this.blockStart = -1;
+                this.endOfStream = -1;
+                break;
+            }
+
+            int offset = this.rawLength;
+            this.append(buffer, n);
+            this.scan(offset, n);
+            this.compact();
+        }
+    }
+
+    private void append(final byte[] buffer, final int n) {
+        if (this.rawLength + n > this.raw.length) {
+            this.raw = Arrays.copyOf(this.raw, Math.max(this.raw.length * 2, this.rawLength + n));
+        }
+        System.arraycopy(buffer, 0, this.raw, this.rawLength, n);
+        this.rawLength += n;
+    }
+
+    /**
+     * Looks for the magic numbers ending in the given bytes, at every bit alignment.
+     */
+    private void scan(final int offset, final int n) {
+        for (int i = offset; i < offset + n; i++) {
+            this.lastBytes = this.lastBytes << 8 | this.raw[i] & 0xFF;
+            this.bytesRead++;
+
+            // the end of stream magic is confirmed by the header of the next stream, 4 bytes after the stream CRC
+            if (this.endOfStream >= 0 && this.bytesRead == streamEnd(this.endOfStream) + HEADER.length) {
+                int blockSize = (int) (this.lastBytes & 0xFF);
+                if ((this.lastBytes >>> 8 & 0xFFFFFF) == STREAM_HEADER && blockSize >= '1' && blockSize <= '9') {
+                    // a stream without blocks has no block to end
+                    if (this.blockStart >= 0) {
+                        this.submit(this.blockStart, this.endOfStream, true);
+                    }
+                    this.blockStart = -1;
+                }
+                this.endOfStream = -1;
+            }
+
+            long bitsRead = this.bytesRead * 8;
+            for (int shift = 7; shift >= 0; shift--) {
+                if (bitsRead < MAGIC_BITS + shift) {
+                    continue;
+                }
+
+                long candidate = this.lastBytes >>> shift & MAGIC_MASK;
+                if (candidate != BLOCK_MAGIC && candidate != END_OF_STREAM_MAGIC) {
+                    continue;
+                }
+
+                long magicStart = bitsRead - shift - MAGIC_BITS;
+                if (candidate == END_OF_STREAM_MAGIC) {
+                    if (this.endOfStream < 0) {
+                        this.endOfStream = magicStart;
+                    }
+                    continue;
+                }
+
+                if (this.blockStart >= 0) {
+                    this.submit(this.blockStart, magicStart, false);
+                }
+                this.blockStart = magicStart;
+                this.endOfStream = -1;
+            }
+        }
+    }
+
+    /**
+     * Returns the number of bytes up to the end of a stream, whose end of stream magic starts at the given bit: the
+     * magic and the stream CRC, padded to a whole byte.
+     */
+    private static long streamEnd(final long endOfStream) {
+        return (endOfStream + MAGIC_BITS + CRC_BITS + 7) / 8;
+    }
+
+    /**
+     * Decompresses the block between the given bits. The CRC of a block ending a stream is read after its end of stream
+     * magic.
+     */
+    private void submit(final long startBit, final long endBit, final boolean endsStream) {
+        int from = (int) (startBit / 8 - this.rawStart);
+        int to = (int) ((endBit + 7) / 8 - this.rawStart);
+
+        Block block = new Block(Arrays.copyOfRange(this.raw, from, to), (int) (startBit % 8), endBit - startBit);
+        int storedStreamCrc = endsStream ? (int) readBits(this.raw, endBit - this.rawStart * 8 + MAGIC_BITS, CRC_BITS) : 0;
+        this.pending.add(new PendingBlock(block, this.executor.submit(() -> decompress(block)), endsStream, storedStreamCrc));
+    }
+
+    /**
+     * Drops the bytes before the current block, keeping the last ones where a magic number may have started.
+     */
+    private void compact() {
+        long keepFrom = this.blockStart >= 0 ? this.blockStart / 8 : this.bytesRead - 8;
+        int drop = (int) Math.max(0, keepFrom - this.rawStart);
+        if (drop == 0) {
+            return;
+        }
+
+        System.arraycopy(this.raw, drop, this.raw, 0, this.rawLength - drop);
+        this.rawLength -= drop;
+        this.rawStart += drop;
+    }
+
+    private static byte[] decompress(final Block block) throws IOException {
+        BitWriter out = new BitWriter(block.bytes.length + 16);
+        for (byte b : HEADER) {
+            out.write(b, 8);
+        }
+        out.copy(block, 0, block.bitLength);
+        out.write(END_OF_STREAM_MAGIC, MAGIC_BITS);
+        // the stream has a single block, so its combined CRC is the CRC of the block, stored after the magic
+        out.write(block.readBits(MAGIC_BITS, CRC_BITS), CRC_BITS);
+
+        try (InputStream in = new BZip2CompressorInputStream(new ByteArrayInputStream(out.toByteArray()))) {
+            return IOUtils.toByteArray(in);
+        } catch (RuntimeException e) {
+            // some corrupt blocks make the decoder index out of its tables
+            throw new IOException("Corrupt BZip2 block", e);
+        }
+    }
+
+    private static long readBits(final byte[] bytes, final long from, final int count) {
+        long value = 0;
+        for (int i = 0; i < count; i++) {
+            long bit = from + i;
+            value = value << 1 | bytes[(int) (bit >>> 3)] >>> 7 - (bit & 7) & 1;
+        }
+        return value;
+    }
+
+    private static class Block {
+        final byte[] bytes;
+        final int bitOffset;
+        final long bitLength;
+
+        Block(final byte[] bytes, final int bitOffset, final long bitLength) {
+            this.bytes = bytes;
+            this.bitOffset = bitOffset;
+            this.bitLength = bitLength;
+        }
+
+        long readBits(final long from, final int count) {
+            return ParallelBZip2InputStream.readBits(this.bytes, this.bitOffset + from, count);
+        }
+
+        static Block concat(final Block first, final Block second) {
+            BitWriter out = new BitWriter(first.bytes.length + second.bytes.length + 1);
+            out.copy(first, 0, first.bitLength);
+            out.copy(second, 0, second.bitLength);
+            return new Block(out.toByteArray(), 0, first.bitLength + second.bitLength);
+        }
+    }
+
+    private static class BitWriter {
+        private byte[] buffer;
+        private int length;
+        private long bits;
+        private int bitCount;
+
+        BitWriter(final int capacity) {
+            this.buffer = new byte[capacity];
+        }
+
+        void write(final long value, final int count) {
+            this.bits = this.bits << count | value & (1L << count) - 1;
+            this.bitCount += count;
+            while (this.bitCount >= 8) {
+                this.bitCount -= 8;
+                if (this.length == this.buffer.length) {
+                    this.buffer = Arrays.copyOf(this.buffer, this.buffer.length * 2);
+                }
+                this.buffer[this.length++] = (byte) (this.bits >>> this.bitCount);
+            }
+        }
+
+        void copy(final Block block, final long from, final long count) {
+            long bit = block.bitOffset + from;
+            long end = bit + count;
+
+            // whole bytes of the source, realigned by combining two consecutive source bytes
+            int shift = (int) (bit & 7);
+            while (end - bit >= 8) {
+                int index = (int) (bit >>> 3);
+                int value = (block.bytes[index] & 0xFF) << 8;
+                if (shift > 0) {
+                    value |= block.bytes[index + 1] & 0xFF;
+                }
+                this.write(value >>> 8 - shift, 8);
+                bit += 8;
+            }
+            if (bit < end) {
+                this.write(block.readBits(bit - block.bitOffset, (int) (end - bit)), (int) (end - bit));
+            }
+        }
+
+        byte[] toByteArray() {
+            if (this.bitCount > 0) {
+                this.write(0, 8 - this.bitCount);
+            }
+            return Arrays.copyOf(this.buffer, this.length);
+        }
+    }
+
+    private static class PendingBlock {
+        final Block block;
+        final Future<byte[]> result;
+        final boolean endsStream;
+        final int storedStreamCrc;
+
+        PendingBlock(final Block block, final Future<byte[]> result, final boolean endsStream, final int storedStreamCrc) {
+            this.block = block;
+            this.result = result;
+            this.endsStream = endsStream;
+            this.storedStreamCrc = storedStreamCrc;
+        }
+    }
+
+}
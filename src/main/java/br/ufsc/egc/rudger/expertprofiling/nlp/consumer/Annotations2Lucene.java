@@ -239,7 +239,7 @@ public class Annotations2Lucene extends JCasConsumer_ImplBase implements LuceneI
     private Document getDocFromAnnotation(final DbpediaCategory dbpedia, final Sentence sentence, final int sentenceDocSeq, final long documentId) {
         Document doc = this.createDocAnnotation(dbpedia, sentence, sentenceDocSeq, documentId);
 
-        doc.add(new StringField(LuceneIndexFields.FIELD_DOC_ANNOTATION_DBPEDIA_CATEGORY_URI, dbpedia.getUri(), Store.YES));
+        doc.add(new IntField(LuceneIndexFields.FIELD_DOC_ANNOTATION_DBPEDIA_CATEGORY_ID, dbpedia.getConceptId(), Store.YES));
 
         return doc;
     }
@@ -9,6 +9,7 @@ import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Comparator;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
@@ -45,6 +46,9 @@ import org.apache.velocity.app.VelocityEngine;
 import org.apache.velocity.runtime.RuntimeConstants;
 import org.apache.velocity.runtime.resource.loader.ClasspathResourceLoader;
 
+import br.ufsc.egc.rudger.expertprofiling.nlp.dbpedia.DbpediaAnnotator;
+import br.ufsc.egc.rudger.expertprofiling.skoslucene.ConceptDictionary;
+
 public class Lucene2ProfilePage extends JCasConsumer_ImplBase implements LuceneIndexFields {
 
     public static final String PARAM_OWNER_CODE = "ownerCode";
@@ -59,6 +63,14 @@ public class Lucene2ProfilePage extends JCasConsumer_ImplBase implements LuceneI
     @ConfigurationParameter(name = PARAM_INDEX_PATH, mandatory = true)
     private String indexPath;
 
+    /**
+     * The DBpedia index path of the {@link DbpediaAnnotator}, whose concept id registry resolves the concept ids of the
+     * annotations
+     */
+    public static final String PARAM_DBPEDIA_INDEX_PATH = DbpediaAnnotator.PARAM_DBPEDIA_INDEX_PATH;
+    @ConfigurationParameter(name = PARAM_DBPEDIA_INDEX_PATH, mandatory = true)
+    private String dbpediaIndexPath;
+
     public static final String PARAM_VELOCITY_TEMPLATE_FILE = "velocityTemplateFile";
     @ConfigurationParameter(name = PARAM_VELOCITY_TEMPLATE_FILE, mandatory = true)
     private String velocityTemplateFile;
@@ -106,10 +118,14 @@ public class Lucene2ProfilePage extends JCasConsumer_ImplBase implements LuceneI
             File fileDest = new File(this.targetFile);
             fileDest.getParentFile().mkdirs();
 
-            try (OutputStreamWriter osw = new OutputStreamWriter(new FileOutputStream(fileDest), "UTF-8")) {
+            File conceptIds = DbpediaAnnotator.getConceptIdDirectory(this.dbpediaIndexPath);
+
+            try (OutputStreamWriter osw = new OutputStreamWriter(new FileOutputStream(fileDest), "UTF-8");
+                    FSDirectory conceptIdDir = FSDirectory.open(conceptIds.toPath());
+                    ConceptDictionary dictionary = ConceptDictionary.open(conceptIdDir)) {
                 VelocityContext context = new VelocityContext();
 
-                List<DbPediaCategory> annotations = this.readAnnotationsFromIndex(searcher);
+                List<DbPediaCategory> annotations = this.readAnnotationsFromIndex(searcher, dictionary);
 
                 context.put("ownerName", this.ownerName);
                 context.put("generatedDate", new SimpleDateFormat("dd/MM/yyyy 'às' HH:mm").format(new Date()));
@@ -143,12 +159,12 @@ public class Lucene2ProfilePage extends JCasConsumer_ImplBase implements LuceneI
         Map<Long, Map<String, Long>> timeline = annotations
                 .stream()
                 .collect(Collectors.groupingBy(DbPediaCategory::getDocumentLastModificationTime, 
-                        Collectors.collectingAndThen(Collectors.groupingBy(DbPediaCategory::getUri, Collectors.counting()), 
+                        Collectors.collectingAndThen(Collectors.groupingBy(Function.identity(), Collectors.counting()), 
                                 m -> m.entrySet()
                                 .stream()
-                                .sorted(Map.Entry.<String, Long> comparingByValue(Comparator.reverseOrder()).thenComparing(Map.Entry.comparingByKey()))
+                                .sorted(Map.Entry.<DbPediaCategory, Long> comparingByValue(Comparator.reverseOrder()).thenComparing(e -> e.getKey().getUri()))
                                 .limit(100)
-                                .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue, (v1, v2)-> v1, LinkedHashMap<String, Long>::new))))); 
+                                .collect(Collectors.toMap(e -> e.getKey().getUri(), Map.Entry::getValue, (v1, v2)-> v1, LinkedHashMap<String, Long>::new))))); 
         
         timeline = timeline
         .entrySet()
@@ -164,13 +180,12 @@ public class Lucene2ProfilePage extends JCasConsumer_ImplBase implements LuceneI
       //@formatter:off
         return annotations
                 .stream()
-                .map(DbPediaCategory::getUri)
                 .collect(Collectors.groupingBy(Function.identity(), Collectors.counting()))
                 .entrySet()
                 .stream()
-                .sorted(Map.Entry.<String, Long> comparingByValue(Comparator.reverseOrder()).thenComparing(Map.Entry.comparingByKey()))
+                .sorted(Map.Entry.<DbPediaCategory, Long> comparingByValue(Comparator.reverseOrder()).thenComparing(e -> e.getKey().getUri()))
                 .limit(100)
-                .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue));
+                .collect(Collectors.toMap(e -> e.getKey().getUri(), Map.Entry::getValue));
         //@formatter:on
     }
 
@@ -179,8 +194,9 @@ public class Lucene2ProfilePage extends JCasConsumer_ImplBase implements LuceneI
         // NOOP
     }
 
-    private List<DbPediaCategory> readAnnotationsFromIndex(final IndexSearcher searcher) throws IOException {
+    private List<DbPediaCategory> readAnnotationsFromIndex(final IndexSearcher searcher, final ConceptDictionary dictionary) throws IOException {
         List<DbPediaCategory> result = new ArrayList<>();
+        Map<Integer, Concept> concepts = new HashMap<>();
 
         TopDocs searchDocuments = searcher.search(this.getDocumentsQuery(this.ownerCode), Integer.MAX_VALUE);
 
@@ -195,30 +211,36 @@ public class Lucene2ProfilePage extends JCasConsumer_ImplBase implements LuceneI
             userDoc.lastModificationTime = document.getField(LuceneIndexFields.FIELD_DOC_LAST_MODIFICATION_TIME).numericValue().longValue();
             userDoc.lastAccessTime = document.getField(LuceneIndexFields.FIELD_DOC_LAST_ACCESS_TIME).numericValue().longValue();
 
-            this.processAnnotationsFromDocument(searcher, userDoc, result);
+            this.processAnnotationsFromDocument(searcher, dictionary, concepts, userDoc, result);
         }
         return result;
     }
 
-    private void processAnnotationsFromDocument(final IndexSearcher searcher, final UserDocument userDoc, final List<DbPediaCategory> result)
-            throws IOException {
+    private void processAnnotationsFromDocument(final IndexSearcher searcher, final ConceptDictionary dictionary, final Map<Integer, Concept> concepts,
+            final UserDocument userDoc, final List<DbPediaCategory> result) throws IOException {
         TopDocs searchDocuments = searcher.search(this.getAnnorationQuery(this.ownerCode, userDoc.id), Integer.MAX_VALUE);
 
         for (ScoreDoc scoreDoc : searchDocuments.scoreDocs) {
             int docId = scoreDoc.doc;
             Document document = searcher.doc(docId);
 
-            IndexableField fieldUri = document.getField(LuceneIndexFields.FIELD_DOC_ANNOTATION_DBPEDIA_CATEGORY_URI);
+            IndexableField fieldConceptId = document.getField(LuceneIndexFields.FIELD_DOC_ANNOTATION_DBPEDIA_CATEGORY_ID);
 
-            if (fieldUri != null) {
-                String uri = fieldUri.stringValue();
+            if (fieldConceptId != null) {
+                int conceptId = fieldConceptId.numericValue().intValue();
+
+                // the URI and display value are resolved once per concept
+                Concept concept = concepts.get(conceptId);
+                if (concept == null) {
+                    concept = this.resolveConcept(dictionary, conceptId);
+                    concepts.put(conceptId, concept);
+                }
 
-                int lastIndexOf = uri.lastIndexOf(':');
-                String value = uri.substring(lastIndexOf + 1, uri.length()).replaceAll("_", " ");
-                if (!StringUtils.isNumeric(value)) {
+                if (concept.uri != null) {
                     DbPediaCategory dbPediaCategory = new DbPediaCategory();
-                    dbPediaCategory.uri = uri;
-                    dbPediaCategory.value = value;
+                    dbPediaCategory.conceptId = conceptId;
+                    dbPediaCategory.uri = concept.uri;
+                    dbPediaCategory.value = concept.value;
 
                     dbPediaCategory.documentId = userDoc.id;
                     dbPediaCategory.documentCreationTime = this.truncateToDate(userDoc.creationTime);
@@ -230,6 +252,24 @@ public class Lucene2ProfilePage extends JCasConsumer_ImplBase implements LuceneI
         }
     }
 
+    private Concept resolveConcept(final ConceptDictionary dictionary, final int conceptId) throws IOException {
+        Concept concept = new Concept();
+
+        String uri = dictionary.getUri(conceptId);
+        if (uri == null) {
+            this.getLogger().warn("Unknown concept id " + conceptId + ".");
+            return concept;
+        }
+
+        int lastIndexOf = uri.lastIndexOf(':');
+        String value = uri.substring(lastIndexOf + 1, uri.length()).replaceAll("_", " ");
+        if (!StringUtils.isNumeric(value)) {
+            concept.uri = uri;
+            concept.value = value;
+        }
+        return concept;
+    }
+
     private Query getDocumentsQuery(final String ownerCode) {
         return new TermQuery(new Term(LuceneIndexFields.FIELD_DOC_OWNER_CODE, ownerCode));
     }
@@ -302,7 +342,16 @@ public class Lucene2ProfilePage extends JCasConsumer_ImplBase implements LuceneI
 
     }
 
+    /**
+     * The URI and display value of a concept id, both null for the concepts not shown in the profile
+     */
+    private static class Concept {
+        String uri;
+        String value;
+    }
+
     public static class DbPediaCategory {
+        private int conceptId;
         private String value;
         private String uri;
         private long total;
@@ -311,6 +360,10 @@ public class Lucene2ProfilePage extends JCasConsumer_ImplBase implements LuceneI
         private long documentLastAccessTime;
         private long documentLastModificationTime;
 
+        public int getConceptId() {
+            return this.conceptId;
+        }
+
         public String getValue() {
             return this.value;
         }
@@ -366,6 +419,17 @@ public class Lucene2ProfilePage extends JCasConsumer_ImplBase implements LuceneI
         public void setDocumentLastModificationTime(final long documentLastModificationTime) {
             this.documentLastModificationTime = documentLastModificationTime;
         }
+
+        // the categories are grouped by concept when counting them
+        @Override
+        public int hashCode() {
+            return this.conceptId;
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            return obj instanceof DbPediaCategory && ((DbPediaCategory) obj).conceptId == this.conceptId;
+        }
     }
 
     public static class DateUtil {
@@ -50,6 +50,6 @@ public interface LuceneIndexFields {
     /*
      * Annotation DbPediaCategory
      */
-    String FIELD_DOC_ANNOTATION_DBPEDIA_CATEGORY_URI = "doc_annotation_dbpedia_category_uri";
+    String FIELD_DOC_ANNOTATION_DBPEDIA_CATEGORY_ID = "doc_annotation_dbpedia_category_id";
 
 }
@@ -7,19 +7,27 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.Writer;
 import java.net.URL;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
 import java.util.Properties;
 import java.util.Set;
-import java.util.Vector;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.commons.codec.digest.DigestUtils;
-import org.apache.commons.compress.compressors.bzip2.BZip2CompressorInputStream;
-import org.apache.commons.compress.utils.IOUtils;
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.lang.StringUtils;
 import org.apache.uima.UimaContext;
@@ -31,13 +39,18 @@ import org.apache.uima.fit.util.JCasUtil;
 import org.apache.uima.jcas.JCas;
 import org.apache.uima.resource.ResourceInitializationException;
 
+import br.ufsc.egc.rudger.expertprofiling.concurrent.LruCache;
+import br.ufsc.egc.rudger.expertprofiling.concurrent.ParallelBZip2InputStream;
 import br.ufsc.egc.rudger.expertprofiling.concurrent.ServiceThreadExecutor;
 import br.ufsc.egc.rudger.expertprofiling.nlp.types.DbpediaCategory;
 import br.ufsc.egc.rudger.expertprofiling.normalizer.DefaultNormalizer;
 import br.ufsc.egc.rudger.expertprofiling.normalizer.Normalizer;
 import br.ufsc.egc.rudger.expertprofiling.skoslucene.SkosEngineImpl;
+import br.ufsc.egc.rudger.expertprofiling.skoslucene.SkosEngineImpl.IndexLayout;
 import br.ufsc.egc.rudger.expertprofiling.stopword.StopWordSet;
+import de.tudarmstadt.ukp.dkpro.core.api.metadata.type.DocumentMetaData;
 import de.tudarmstadt.ukp.dkpro.core.api.parameter.ComponentParameters;
+import de.tudarmstadt.ukp.dkpro.core.api.resources.ResourceUtils;
 import de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Sentence;
 import de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.StopWord;
 import de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Token;
@@ -70,17 +83,170 @@ public class DbpediaAnnotator extends JCasAnnotator_ImplBase {
     @ConfigurationParameter(name = PARAM_STOPWORD_ENCODING, mandatory = true, defaultValue = "UTF-8")
     private String swFilesEncoding;
 
+    /**
+     * The number of threads used to match the sentences of the documents. Zero uses the number of available
+     * processors.
+     */
+    public static final String PARAM_NUM_THREADS = "numThreads";
+    @ConfigurationParameter(name = PARAM_NUM_THREADS, mandatory = true, defaultValue = "0")
+    private int numThreads;
+
+    /**
+     * The false positive probability of the Bloom filter that rejects the labels absent from the DBpedia index.
+     */
+    public static final String PARAM_BLOOM_FILTER_FPP = "bloomFilterFpp";
+    @ConfigurationParameter(name = PARAM_BLOOM_FILTER_FPP, mandatory = true, defaultValue = "0.01")
+    private float bloomFilterFpp;
+
+    /**
+     * The maximum number of concept URIs kept in the lookup cache of the DBpedia index. Zero disables the cache.
+     */
+    public static final String PARAM_CACHE_SIZE = "cacheSize";
+    @ConfigurationParameter(name = PARAM_CACHE_SIZE, mandatory = true, defaultValue = "100000")
+    private int cacheSize;
+
+    /**
+     * The maximum number of sentences whose matches are cached, so the repeated sentences of a corpus, like headers and
+     * disclaimers, are matched once. Zero disables the cache.
+     */
+    public static final String PARAM_SENTENCE_CACHE_SIZE = "sentenceCacheSize";
+    @ConfigurationParameter(name = PARAM_SENTENCE_CACHE_SIZE, mandatory = true, defaultValue = "0")
+    private int sentenceCacheSize;
+
+    /**
+     * The maximum number of label lookups of a document. The sentences left when it is reached are not annotated. Zero
+     * means no limit.
+     */
+    public static final String PARAM_MAX_LOOKUPS_PER_DOCUMENT = "maxLookupsPerDocument";
+    @ConfigurationParameter(name = PARAM_MAX_LOOKUPS_PER_DOCUMENT, mandatory = true, defaultValue = "0")
+    private int maxLookupsPerDocument;
+
+    /**
+     * The maximum time spent annotating a document, in milliseconds. The sentences left when it expires are not
+     * annotated. Zero means no limit.
+     */
+    public static final String PARAM_DOCUMENT_TIMEOUT = "documentTimeout";
+    @ConfigurationParameter(name = PARAM_DOCUMENT_TIMEOUT, mandatory = true, defaultValue = "0")
+    private int documentTimeout;
+
+    /**
+     * The maximum number of tokens of a sentence. Longer sentences, like the single sentence of a data dump, are split
+     * in windows of this size. Zero means no limit.
+     */
+    public static final String PARAM_MAX_SENTENCE_TOKENS = "maxSentenceTokens";
+    @ConfigurationParameter(name = PARAM_MAX_SENTENCE_TOKENS, mandatory = true, defaultValue = "0")
+    private int maxSentenceTokens;
+
+    /**
+     * The number of broader or narrower edges followed to compute the transitive categories of the DBpedia index,
+     * which the dumps seldom state. Zero keeps only the stated ones.
+     */
+    public static final String PARAM_TRANSITIVE_CLOSURE_DEPTH = "transitiveClosureDepth";
+    @ConfigurationParameter(name = PARAM_TRANSITIVE_CLOSURE_DEPTH, mandatory = true, defaultValue = "0")
+    private int transitiveClosureDepth;
+
+    /**
+     * What the DBpedia index keeps of each category, FULL or LOOKUP. The annotator only needs the LOOKUP layout, which
+     * is several times smaller. An index of the FULL layout is used as is.
+     */
+    public static final String PARAM_INDEX_LAYOUT = "indexLayout";
+    @ConfigurationParameter(name = PARAM_INDEX_LAYOUT, mandatory = true, defaultValue = "LOOKUP")
+    private String indexLayout;
+
+    /**
+     * Newer versions of the DBpedia dumps applied to the index once, in the given order. Each one replaces the dump of
+     * the {@link #PARAM_DBPEDIA_LINKS}, or the previous update, with the same file name, the others being added to the
+     * dumps. The index is compared with all its dumps after the replacement, the ones not replaced being read again,
+     * so only the categories whose statements changed are rewritten and the ones no longer in any dump are deleted.
+     * Delta files are not supported. The index directory stays the one of the {@link #PARAM_DBPEDIA_LINKS}.
+     */
+    public static final String PARAM_DBPEDIA_UPDATE_LINKS = "dbpediaUpdateLinks";
+    @ConfigurationParameter(name = PARAM_DBPEDIA_UPDATE_LINKS, mandatory = false)
+    private String[] dbpediaUpdateLinks;
+
+    /**
+     * The languages of the partitions of the DBpedia index, as "pt" and "en". Each partition holds the categories
+     * labeled in its language, read from the dumps whose file name ends with the language, as skos_categories_pt.ttl.bz2,
+     * or told apart by the language tags of the labels of the other dumps. The documents are looked up in the partition
+     * of their language. Empty keeps a single index of all the languages.
+     */
+    public static final String PARAM_LANGUAGES = "languages";
+    @ConfigurationParameter(name = PARAM_LANGUAGES, mandatory = false)
+    private String[] languages;
+
+    /**
+     * The partitions looked up, in order, for the labels not found in the one of the document language, or for the
+     * documents of a language without a partition. The documents matching no partition are looked up in all of them.
+     */
+    public static final String PARAM_FALLBACK_LANGUAGES = "fallbackLanguages";
+    @ConfigurationParameter(name = PARAM_FALLBACK_LANGUAGES, mandatory = false)
+    private String[] fallbackLanguages;
+
+    /**
+     * Whether the files of the DBpedia index are read through at startup, so the first documents do not wait for them
+     * to load from disk.
+     */
+    public static final String PARAM_PRELOAD_INDEX = "preloadIndex";
+    @ConfigurationParameter(name = PARAM_PRELOAD_INDEX, mandatory = true, defaultValue = "false")
+    private boolean preloadIndex;
+
+    /**
+     * Whether the DBpedia index is warmed up at startup, by walking its label dictionaries and looking up the labels of
+     * the {@link #PARAM_WARM_UP_QUERY_LOG}.
+     */
+    public static final String PARAM_WARM_UP = "warmUp";
+    @ConfigurationParameter(name = PARAM_WARM_UP, mandatory = true, defaultValue = "false")
+    private boolean warmUp;
+
+    /**
+     * A file with the labels looked up at warm-up, one normalized n-gram per line, as the ones of a previous run. Its
+     * lookups also fill the concept lookup cache.
+     */
+    public static final String PARAM_WARM_UP_QUERY_LOG = "warmUpQueryLog";
+    @ConfigurationParameter(name = PARAM_WARM_UP_QUERY_LOG, mandatory = false)
+    private String warmUpQueryLog;
+
+    /**
+     * A DBpedia index bundle written by {@link DbpediaIndexBundle}, imported when the index directory does not exist
+     * instead of downloading and indexing the dumps. A bundle built from other dumps, stop words or languages is
+     * ignored.
+     */
+    public static final String PARAM_INDEX_BUNDLE = "indexBundle";
+    @ConfigurationParameter(name = PARAM_INDEX_BUNDLE, mandatory = false)
+    private String indexBundle;
+
+    /**
+     * Whether the {@link #PARAM_INDEX_BUNDLE} is opened where it is, as a read-only and memory-mapped index, instead of
+     * being copied. The index is then used as built, without applying the update links. A bundle whose structures were
+     * built with another {@link #PARAM_TRANSITIVE_CLOSURE_DEPTH} or {@link #PARAM_BLOOM_FILTER_FPP} is copied instead.
+     */
+    public static final String PARAM_INDEX_BUNDLE_IN_PLACE = "indexBundleInPlace";
+    @ConfigurationParameter(name = PARAM_INDEX_BUNDLE_IN_PLACE, mandatory = true, defaultValue = "false")
+    private boolean indexBundleInPlace;
+
     private static final String MAX_TOKENS = "maxTokens";
 
-    private SkosEngineImpl skosEngine;
+    private static final String APPLIED_UPDATES = "appliedUpdates";
+
+    private static final String INDEX_LAYOUT = "indexLayout";
+
+    static final String TRANSITIVE_CLOSURE_DEPTH = "transitiveClosureDepth";
+
+    static final String BLOOM_FILTER_FPP = "bloomFilterFpp";
 
-    private Set<String> stopwords;
+    private static final int CHUNKS_PER_THREAD = 4;
+
+    private static final int CANDIDATE_BATCH_TOKENS = 1024;
+
+    private List<IndexPartition> partitions;
+
+    private StopWordSet stopwords;
 
     private TokenCounterNormalizerWrapper normalizer;
 
-    private int maxTokens;
+    private ServiceThreadExecutor executor;
 
-    private Properties props;
+    private LruCache<Long, SentenceMatches> sentenceCache;
 
     /*
      * Public API
@@ -90,142 +256,560 @@ public class DbpediaAnnotator extends JCasAnnotator_ImplBase {
     public void initialize(final UimaContext aContext) throws ResourceInitializationException {
         super.initialize(aContext);
 
-        this.props = new Properties();
+        int threads = this.numThreads > 0 ? this.numThreads : Runtime.getRuntime().availableProcessors();
+        this.executor = ServiceThreadExecutor.newFixedThreadPool(threads);
 
-        File index = new File(this.dbpediaIndexPath + "_" + this.createHash());
-        File conf = new File(index.getAbsoluteFile() + File.separator + "conf.properties");
+        if (this.sentenceCacheSize > 0) {
+            this.sentenceCache = new LruCache<>(this.sentenceCacheSize);
+        }
+
+        File index = getIndexDirectory(this.dbpediaIndexPath, this.dbpediaLinks, this.swFileNames, this.languages);
 
         try {
 
-            this.stopwords = this.readStopWords();
+            this.stopwords = this.readStopWords(aContext);
 
             this.normalizer = this.createNormalizerWrapper();
 
-            if (index.exists() && conf.exists()) {
-                this.getLogger().info("Index directory found. Loading data from '" + index.getAbsolutePath() + "'.");
-                this.skosEngine = new SkosEngineImpl(index, this.normalizer);
-                this.skosEngine.createSearch();
-
-                try (InputStream in = new FileInputStream(conf)) {
-                    this.props.load(in);
+            boolean readOnly = false;
+            if (this.indexBundle != null) {
+                DbpediaIndexBundle bundle = DbpediaIndexBundle.open(new File(this.indexBundle));
+                if (!bundle.getIndexName().equals(index.getName())) {
+                    this.getLogger().warn("Index bundle '" + this.indexBundle + "' was built from other DBpedia dumps, stop words or languages. Ignoring it.");
+                } else if (this.indexBundleInPlace && bundle.hasSettings(this.transitiveClosureDepth, this.bloomFilterFpp)) {
+                    this.getLogger().info("Opening the index bundle '" + this.indexBundle + "' in place.");
+                    bundle.checkSizes();
+                    index = bundle.getDirectory();
+                    readOnly = true;
+                } else {
+                    if (this.indexBundleInPlace) {
+                        this.getLogger().warn("Index bundle '" + this.indexBundle + "' was built with another transitive closure depth or Bloom filter false"
+                                + " positive probability, whose structures cannot be rebuilt in place. Using a copy of it.");
+                    }
+                    if (!index.exists()) {
+                        this.getLogger().info("Index directory not found in '" + index.getAbsolutePath() + "'. Importing the index bundle '" + this.indexBundle + "'.");
+                        bundle.importTo(index);
+                    }
                 }
-                this.maxTokens = new Integer(this.props.getProperty(MAX_TOKENS));
+            }
+
+            this.partitions = new ArrayList<>();
+            if (this.languages == null || this.languages.length == 0) {
+                this.partitions.add(this.openPartition(index, null, threads, readOnly));
             } else {
-                FileUtils.deleteQuietly(index);
-                
-                this.getLogger().info("Index directory not found in '" + index.getAbsolutePath() + "'. Downloading the SKOS data from DBpedia.");
+                for (String language : this.languages) {
+                    this.partitions.add(this.openPartition(new File(index, language), language, threads, readOnly));
+                }
+            }
+        } catch (IOException e) {
+            throw new ResourceInitializationException(e);
+        }
+    }
 
-                index.mkdirs();
-                this.skosEngine = new SkosEngineImpl(index, this.normalizer);
+    @Override
+    public void process(final JCas jCas) throws AnalysisEngineProcessException {
+        DocumentBudget budget = new DocumentBudget(this.maxLookupsPerDocument, this.documentTimeout);
 
-                for (String url : this.dbpediaLinks) {
-                    BZip2CompressorInputStream bzip = null;
-                    try {
-                        InputStream in = new URL(url).openStream();
-                        bzip = new BZip2CompressorInputStream(in);
+        // the CAS is only read here, the workers just receive the token ordinals of their sentences
+        DocumentTokens document = new DocumentTokens(jCas);
 
-                        this.skosEngine.indexModel(bzip, "N3");
+        List<IndexPartition> route = this.getRoute(jCas.getDocumentLanguage());
+
+        List<int[]> sentences = new ArrayList<>();
+        int splitSentences = 0;
+        for (Sentence currSentence : JCasUtil.select(jCas, Sentence.class)) {
+            int[] tokens = document.getCoveredTokens(currSentence.getBegin(), currSentence.getEnd());
+            if (this.maxSentenceTokens > 0 && tokens.length > this.maxSentenceTokens) {
+                for (int from = 0; from < tokens.length; from += this.maxSentenceTokens) {
+                    sentences.add(Arrays.copyOfRange(tokens, from, Math.min(tokens.length, from + this.maxSentenceTokens)));
+                }
+                splitSentences++;
+            } else {
+                sentences.add(tokens);
+            }
+        }
+        if (splitSentences > 0) {
+            this.getLogger().info(splitSentences + " sentences of '" + getDocumentName(jCas) + "' split in windows of " + this.maxSentenceTokens + " tokens.");
+        }
 
-                    } catch (Exception e) {
-                        throw new RuntimeException(e);
-                    } finally {
-                        IOUtils.closeQuietly(bzip);
+        List<Future<List<LongestMatchResult>>> futures = new ArrayList<>();
+        for (List<int[]> chunk : this.createChunks(sentences)) {
+            futures.add(this.executor.submit(() -> {
+                List<LongestMatchResult> annotations = new ArrayList<>();
+                for (int[] tokens : chunk) {
+                    // once a limit is reached the remaining sentences are skipped, keeping the annotations found so far
+                    if (budget.isExhausted()) {
+                        budget.skippedSentences.incrementAndGet();
+                        continue;
                     }
+                    this.processSentence(document, tokens, route, budget, annotations);
                 }
+                return annotations;
+            }));
+        }
 
-                this.skosEngine.createSearch();
+        try {
+            for (Future<List<LongestMatchResult>> future : futures) {
+                for (LongestMatchResult longestMatchResult : future.get()) {
+                    for (int conceptId : longestMatchResult.concepts) {
+                        DbpediaCategory dbpediaCategory = new DbpediaCategory(jCas, longestMatchResult.begin, longestMatchResult.end);
+                        dbpediaCategory.setConceptId(conceptId);
+                        dbpediaCategory.addToIndexes();
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new AnalysisEngineProcessException(e);
+        } catch (ExecutionException e) {
+            throw new AnalysisEngineProcessException(e.getCause());
+        } finally {
+            for (Future<List<LongestMatchResult>> future : futures) {
+                future.cancel(true);
+            }
+        }
 
-                this.maxTokens = this.normalizer.maxTokens;
+        if (budget.exhausted != null) {
+            this.getLogger().warn("Annotation of '" + getDocumentName(jCas) + "' truncated by the " + budget.exhausted + ": " + budget.skippedSentences
+                    + " of " + sentences.size() + " sentences skipped.");
+        }
+    }
 
-                this.props.put(MAX_TOKENS, String.valueOf(this.maxTokens));
+    @Override
+    public void collectionProcessComplete() throws AnalysisEngineProcessException {
+        super.collectionProcessComplete();
+
+        for (IndexPartition partition : this.partitions) {
+            String prefix = partition.language != null ? "[" + partition.language + "] " : "";
+            this.getLogger().info(prefix + "Label Bloom filter statistics: " + partition.skosEngine.getBloomFilterStatistics() + ".");
+            if (partition.skosEngine.getLabelCache() != null) {
+                this.getLogger().info(prefix + "Concept lookup cache statistics: " + partition.skosEngine.getLabelCache() + ".");
+            }
+        }
+        if (this.sentenceCache != null) {
+            this.getLogger().info("Sentence cache statistics: " + this.sentenceCache + ".");
+        }
+    }
 
-                try (Writer out = new FileWriter(conf)) {
-                    this.props.store(new FileWriter(conf), null);
+    @Override
+    public void destroy() {
+        if (this.executor != null) {
+            this.executor.shutdownNow();
+        }
+        if (this.partitions != null) {
+            for (IndexPartition partition : this.partitions) {
+                try {
+                    partition.skosEngine.close();
+                } catch (IOException e) {
+                    this.getLogger().warn("Could not close the DBpedia index", e);
                 }
             }
-        } catch (IOException e) {
-            throw new ResourceInitializationException(e);
         }
+
+        super.destroy();
     }
 
-    @Override
-    public void process(final JCas jCas) throws AnalysisEngineProcessException {
-        ServiceThreadExecutor executor = ServiceThreadExecutor.newProcessorsThreadPool(100);
-        List<LongestMatchResult> annotations = new Vector<>();
+    private void processSentence(final DocumentTokens document, final int[] tokens, final List<IndexPartition> route, final DocumentBudget budget,
+            final List<LongestMatchResult> annotations) throws AnalysisEngineProcessException {
+        String[] texts = new String[tokens.length];
+        for (int i = 0; i < texts.length; i++) {
+            texts[i] = document.texts[tokens[i]];
+        }
+
+        SentenceMatches matches;
         try {
-            for (Sentence currSentence : JCasUtil.select(jCas, Sentence.class)) {
-                executor.submit(() -> {
-                    try {
-                        this.processSentence(jCas, currSentence, annotations);
-                    } catch (AnalysisEngineProcessException e) {
-                        throw new RuntimeException(e);
+            if (this.sentenceCache != null) {
+                // the key is only a hash, so the cached matches are of this sentence if their check hash is the same too
+                Long key = hash(route, texts);
+                long check = checkHash(route, texts);
+                matches = this.sentenceCache.getIfPresent(key);
+                if (matches == null || matches.tokenCount != texts.length || matches.check != check) {
+                    long start = System.nanoTime();
+                    matches = this.findMatches(texts, route, budget, check);
+                    if (matches != null) {
+                        this.sentenceCache.put(key, matches, System.nanoTime() - start);
                     }
-                });
+                }
+            } else {
+                matches = this.findMatches(texts, route, budget, 0);
             }
-        } finally {
-            executor.shutdown();
-            try {
-                executor.awaitTermination(Integer.MAX_VALUE, TimeUnit.SECONDS);
+        } catch (IOException e) {
+            throw new AnalysisEngineProcessException(e);
+        }
 
-                for (LongestMatchResult longestMatchResult : annotations) {
-                    for (String conceptUri : longestMatchResult.concepts) {
-                        DbpediaCategory dbpediaCategory = new DbpediaCategory(jCas, longestMatchResult.begin, longestMatchResult.end);
-                        dbpediaCategory.setUri(conceptUri);
-                        dbpediaCategory.addToIndexes();
+        if (matches == null) {
+            budget.skippedSentences.incrementAndGet();
+            return;
+        }
+
+        // the matches are relative to the sentence, so a cached one is anchored to the tokens of this copy
+        for (int m = 0; m < matches.starts.length; m++) {
+            int beginToken = tokens[matches.starts[m]];
+            int endToken = tokens[matches.starts[m] + matches.lengths[m] - 1];
+
+            if (!document.isStopWord(beginToken, endToken)) {
+                LongestMatchResult longestMatch = new LongestMatchResult();
+                longestMatch.concepts = matches.concepts[m];
+                longestMatch.begin = document.begins[beginToken];
+                longestMatch.end = document.ends[endToken];
+
+                annotations.add(longestMatch);
+            }
+        }
+    }
+
+    /**
+     * Returns the longest matches of the sentence, or null if resolving its candidates would exceed the lookups of the
+     * document or its time limit expires meanwhile. The null result is not cached.
+     */
+    private SentenceMatches findMatches(final String[] texts, final List<IndexPartition> route, final DocumentBudget budget, final long check)
+            throws IOException {
+        int[] windows = new int[texts.length];
+        for (int i = 0; i < texts.length; i++) {
+            windows[i] = Math.min(getMaxLabelTokens(route, texts[i]), texts.length - i);
+        }
+
+        // collect every window which can match a label starting with its first token, so all of them are resolved in a
+        // few batches, between which the time limit is checked, as a sentence may be a whole unsplit data dump
+        Set<String> candidates = new HashSet<>();
+        Map<String, int[]> matches = new HashMap<>();
+        for (int from = 0; from < texts.length; from += CANDIDATE_BATCH_TOKENS) {
+            if (budget.isExhausted()) {
+                return null;
+            }
+
+            Set<String> batch = new HashSet<>();
+            for (int i = from; i < Math.min(texts.length, from + CANDIDATE_BATCH_TOKENS); i++) {
+                StringBuilder ngram = new StringBuilder();
+                for (int j = i; j < i + windows[i]; j++) {
+                    if (j > i) {
+                        ngram.append(' ');
+                    }
+                    ngram.append(texts[j]);
+                    if (candidates.add(ngram.toString())) {
+                        batch.add(ngram.toString());
                     }
                 }
+            }
+
+            if (!budget.acquireLookups(batch.size())) {
+                return null;
+            }
+            if (!batch.isEmpty()) {
+                matches.putAll(getConceptIds(route, batch));
+            }
+        }
+
+        List<LongestMatchResult> found = new ArrayList<>();
+        List<Integer> starts = new ArrayList<>();
+        int i = 0;
+        while (i < texts.length) {
+            LongestMatchResult longestMatch = this.getLongestMatch(texts, i, windows[i], matches);
+
+            if (longestMatch != null) {
+                found.add(longestMatch);
+                starts.add(i);
+                i += longestMatch.tokens.size() - 1; // move to the found concept position
+            }
 
-            } catch (InterruptedException e) {
-                throw new AnalysisEngineProcessException(e);
+            i++;
+        }
+
+        SentenceMatches result = new SentenceMatches(found.size(), texts.length, check);
+        for (int m = 0; m < found.size(); m++) {
+            result.starts[m] = starts.get(m);
+            result.lengths[m] = found.get(m).tokens.size();
+            result.concepts[m] = found.get(m).concepts;
+        }
+        return result;
+    }
+
+    private static String getDocumentName(final JCas jCas) {
+        Collection<DocumentMetaData> metaData = JCasUtil.select(jCas, DocumentMetaData.class);
+        return metaData.isEmpty() ? "unknown" : metaData.iterator().next().getDocumentUri();
+    }
+
+    /**
+     * Returns the partitions looked up for a document: the one of its language followed by the fallback ones, or all of
+     * them when none applies.
+     */
+    private List<IndexPartition> getRoute(final String documentLanguage) {
+        List<IndexPartition> route = new ArrayList<>();
+        this.addToRoute(route, documentLanguage);
+        if (this.fallbackLanguages != null) {
+            for (String language : this.fallbackLanguages) {
+                this.addToRoute(route, language);
             }
         }
+        return route.isEmpty() ? this.partitions : route;
     }
 
-    private void processSentence(final JCas jCas, final Sentence currSentence, final List<LongestMatchResult> annotations)
-            throws AnalysisEngineProcessException {
-        ArrayList<Token> tokens = new ArrayList<Token>(JCasUtil.selectCovered(Token.class, currSentence));
+    private void addToRoute(final List<IndexPartition> route, final String language) {
+        if (language == null) {
+            return;
+        }
+        // the partitions are of the primary language, so a pt-BR document is looked up in the pt one
+        int end = language.indexOf('-');
+        String primaryLanguage = end < 0 ? language : language.substring(0, end);
+        for (IndexPartition partition : this.partitions) {
+            if (primaryLanguage.equalsIgnoreCase(partition.language) && !route.contains(partition)) {
+                route.add(partition);
+            }
+        }
+    }
 
-        int ngram = Math.min(tokens.size(), this.maxTokens);
+    private static int getMaxLabelTokens(final List<IndexPartition> route, final String firstToken) {
+        int maxTokens = 0;
+        for (IndexPartition partition : route) {
+            maxTokens = Math.max(maxTokens, Math.min(partition.maxTokens, partition.skosEngine.getMaxLabelTokens(firstToken)));
+        }
+        return maxTokens;
+    }
 
-        int i = 0;
-        do {
-            int end = Math.min(i + ngram, tokens.size());
-            List<String> tokensNgram = new ArrayList<String>(end - i);
+    /**
+     * Resolves the candidates in the partitions of the route, each one looking up the labels the previous ones did not
+     * find, with the ids of the concepts found in the concept id registry of the annotations.
+     */
+    private static Map<String, int[]> getConceptIds(final List<IndexPartition> route, final Set<String> candidates) throws IOException {
+        Map<String, int[]> matches = new HashMap<>();
+        Set<String> missing = new HashSet<>(candidates);
+        for (IndexPartition partition : route) {
+            for (Map.Entry<String, int[]> match : partition.skosEngine.getRegisteredConceptIds(missing).entrySet()) {
+                matches.put(match.getKey(), match.getValue());
+                missing.remove(match.getKey());
+            }
+
+            if (missing.isEmpty()) {
+                break;
+            }
+        }
+        return matches;
+    }
+
+    /**
+     * A 64 bits FNV-1a hash of the partitions looked up and the tokens of a sentence, the key of the sentence cache.
+     */
+    private static Long hash(final List<IndexPartition> route, final String[] texts) {
+        long h = 0xcbf29ce484222325L;
+        // the same sentence matches other concepts in other partitions
+        for (IndexPartition partition : route) {
+            h = hash(h, String.valueOf(partition.language));
+        }
+        for (String text : texts) {
+            h = hash(h, text);
+        }
+        return h;
+    }
+
+    /**
+     * A second hash of the partitions and tokens of a sentence, independent of {@link #hash(List, String[])}, which tells
+     * a sentence from another one with the same key.
+     */
+    private static long checkHash(final List<IndexPartition> route, final String[] texts) {
+        long h = 1;
+        for (IndexPartition partition : route) {
+            h = 31 * h + String.valueOf(partition.language).hashCode();
+        }
+        for (String text : texts) {
+            h = 31 * h + text.hashCode();
+        }
+        return h;
+    }
+
+    private static long hash(long h, final String text) {
+        for (int i = 0; i < text.length(); i++) {
+            h = (h ^ text.charAt(i)) * 0x100000001b3L;
+        }
+        // a separator, so the token boundaries are part of the hash
+        return (h ^ 0xFFFF) * 0x100000001b3L;
+    }
+
+    /**
+     * Splits the sentences into chunks with about the same number of tokens. The longest sentences are distributed
+     * first, each one to the lightest chunk, so a very long sentence ends up alone in its chunk while the others are
+     * processed by the remaining threads.
+     */
+    private List<List<int[]>> createChunks(final List<int[]> sentences) {
+        int chunkCount = Math.min(sentences.size(), this.executor.getMaximumPoolSize() * CHUNKS_PER_THREAD);
+
+        List<List<int[]>> chunks = new ArrayList<>(chunkCount);
+        PriorityQueue<Chunk> lightest = new PriorityQueue<>(Math.max(1, chunkCount));
+        for (int i = 0; i < chunkCount; i++) {
+            Chunk chunk = new Chunk();
+            chunks.add(chunk.sentences);
+            lightest.add(chunk);
+        }
+
+        List<int[]> bySize = new ArrayList<>(sentences);
+        bySize.sort((s1, s2) -> Integer.compare(s2.length, s1.length));
+
+        for (int[] sentence : bySize) {
+            Chunk chunk = lightest.poll();
+            chunk.sentences.add(sentence);
+            chunk.tokens += sentence.length;
+            lightest.add(chunk);
+        }
+
+        return chunks;
+    }
+
+    /*
+     * Private methods
+     */
+
+    /**
+     * Opens the DBpedia index of a language, or of all of them if null, building it if missing or of a layout that
+     * cannot answer the lookups, and applying the updates not applied yet. A read-only index is only opened.
+     */
+    private IndexPartition openPartition(final File index, final String language, final int threads, final boolean readOnly) throws IOException {
+        File conf = new File(index.getAbsoluteFile() + File.separator + "conf.properties");
+        Properties props = new Properties();
 
-            for (int j = i; j < end; j++) {
-                tokensNgram.add(tokens.get(j).getCoveredText());
+        IndexLayout layout = IndexLayout.valueOf(this.indexLayout);
+        if (index.exists() && conf.exists()) {
+            try (InputStream in = new FileInputStream(conf)) {
+                props.load(in);
             }
+        }
+
+        // the longest label is counted for each partition
+        this.normalizer.maxTokens.set(0);
 
-            LongestMatchResult longestMatch = null;
-            try {
-                longestMatch = this.getLongestMatch(tokensNgram);
-            } catch (IOException e) {
-                throw new AnalysisEngineProcessException(e);
+        SkosEngineImpl skosEngine;
+        int maxTokens;
+        // the indexes written before the layouts existed have the full one, which answers any lookup
+        IndexLayout indexedLayout = IndexLayout.valueOf(props.getProperty(INDEX_LAYOUT, IndexLayout.FULL.name()));
+        if (index.exists() && conf.exists() && (indexedLayout == IndexLayout.FULL || indexedLayout == layout)) {
+            this.getLogger().info("Index directory found. Loading data from '" + index.getAbsolutePath() + "'.");
+            skosEngine = this.createSkosEngine(index, language, indexedLayout);
+            skosEngine.setReadOnly(readOnly);
+
+            maxTokens = Integer.parseInt(props.getProperty(MAX_TOKENS));
+        } else if (readOnly) {
+            throw new IOException("Index in '" + index.getAbsolutePath() + "' has the " + indexedLayout + " layout and cannot be rebuilt in place.");
+        } else {
+            if (conf.exists()) {
+                this.getLogger().info("Index in '" + index.getAbsolutePath() + "' has the " + indexedLayout + " layout. Rebuilding it.");
             }
+            FileUtils.deleteQuietly(index);
+            props.clear();
 
-            if (longestMatch != null) {
-                int lastTokenPos = i + longestMatch.tokens.size() - 1;
+            this.getLogger().info("Index directory not found in '" + index.getAbsolutePath() + "'. Downloading the SKOS data from DBpedia.");
 
-                Token beginToken = tokens.get(i);
-                Token endToken = tokens.get(lastTokenPos);
+            index.mkdirs();
+            skosEngine = this.createSkosEngine(index, language, layout);
 
-                if (JCasUtil.selectAt(jCas, StopWord.class, beginToken.getBegin(), endToken.getEnd()).isEmpty()) {
+            // the dumps are indexed concurrently, their bzip2 blocks being decompressed by the annotation threads
+            List<Callable<InputStream>> dumps = new ArrayList<>();
+            for (String url : this.dbpediaLinks) {
+                if (this.isDumpOf(url, language)) {
+                    dumps.add(() -> this.openDump(url, threads));
+                }
+            }
+            skosEngine.indexModels(dumps, "N3");
 
-                    longestMatch.begin = beginToken.getBegin();
-                    longestMatch.end = endToken.getEnd();
+            maxTokens = this.normalizer.maxTokens.get();
 
-                    annotations.add(longestMatch);
+            props.put(MAX_TOKENS, String.valueOf(maxTokens));
+            props.put(INDEX_LAYOUT, layout.name());
+            props.put(TRANSITIVE_CLOSURE_DEPTH, String.valueOf(this.transitiveClosureDepth));
+            props.put(BLOOM_FILTER_FPP, String.valueOf(this.bloomFilterFpp));
+            try (Writer out = new FileWriter(conf)) {
+                props.store(out, null);
+            }
+        }
+
+        // the dumps of the index after the updates, by file name, which an update of the same name replaces
+        Map<String, String> dumps = new LinkedHashMap<>();
+        for (String url : this.dbpediaLinks) {
+            dumps.put(getFileName(url), url);
+        }
+        List<String> appliedUpdates = new ArrayList<>(Arrays.asList(StringUtils.split(props.getProperty(APPLIED_UPDATES, ""))));
+        int updates = 0;
+        for (String url : this.dbpediaUpdateLinks != null ? this.dbpediaUpdateLinks : new String[0]) {
+            dumps.put(getFileName(url), url);
+            if (!appliedUpdates.contains(url)) {
+                appliedUpdates.add(url);
+                if (this.isDumpOf(url, language)) {
+                    updates++;
                 }
-                i = lastTokenPos; // move to the found concept position
             }
+        }
 
-            i++;
-        } while (i < tokens.size());
+        boolean updated = false;
+        if (updates > 0 && readOnly) {
+            this.getLogger().warn(updates + " DBpedia updates not applied to the read-only index in '" + index.getAbsolutePath() + "'.");
+        } else if (updates > 0) {
+            // the categories missing from the dumps are deleted, so the dumps not replaced are read again
+            List<Callable<InputStream>> inputs = new ArrayList<>();
+            for (String url : dumps.values()) {
+                if (this.isDumpOf(url, language)) {
+                    inputs.add(() -> this.openDump(url, threads));
+                }
+            }
+
+            this.getLogger().info("Applying " + updates + " DBpedia updates to the index, comparing it with its " + inputs.size() + " dumps.");
+            skosEngine.updateModels(inputs, "N3");
+            updated = true;
+        }
+
+        skosEngine.createSearch();
+
+        // the structures were rebuilt with the current settings, which a bundle exported from the index records
+        boolean settingsChanged = !String.valueOf(this.transitiveClosureDepth).equals(props.getProperty(TRANSITIVE_CLOSURE_DEPTH))
+                || !String.valueOf(this.bloomFilterFpp).equals(props.getProperty(BLOOM_FILTER_FPP));
+        if (updated || settingsChanged && !readOnly) {
+            if (updated) {
+                // the longest labels may be the ones of deleted categories, so the maximum is read from the new index
+                maxTokens = skosEngine.getMaxLabelTokens();
+
+                props.put(MAX_TOKENS, String.valueOf(maxTokens));
+                props.put(APPLIED_UPDATES, StringUtils.join(appliedUpdates, ' '));
+            }
+            props.put(TRANSITIVE_CLOSURE_DEPTH, String.valueOf(this.transitiveClosureDepth));
+            props.put(BLOOM_FILTER_FPP, String.valueOf(this.bloomFilterFpp));
+            try (Writer out = new FileWriter(conf)) {
+                props.store(out, null);
+            }
+        }
+
+        return new IndexPartition(language, skosEngine, maxTokens);
     }
 
-    /*
-     * Private methods
+    private SkosEngineImpl createSkosEngine(final File index, final String language, final IndexLayout layout) throws IOException {
+        SkosEngineImpl skosEngine = new SkosEngineImpl(index, this.normalizer);
+        skosEngine.setBloomFilterFalsePositiveProbability(this.bloomFilterFpp);
+        skosEngine.setCacheSize(this.cacheSize);
+        skosEngine.setTransitiveClosureDepth(this.transitiveClosureDepth);
+        skosEngine.setIndexLayout(layout);
+        skosEngine.setLabelLanguage(language);
+        skosEngine.setPreload(this.preloadIndex);
+        skosEngine.setWarmUp(this.warmUp, this.warmUpQueryLog != null ? Paths.get(this.warmUpQueryLog) : null);
+        // the annotations carry the ids of the registry, which outlive the document ids of the views of the index
+        skosEngine.setConceptIdRegistry(getConceptIdDirectory(this.dbpediaIndexPath));
+        return skosEngine;
+    }
+
+    /**
+     * Returns whether a dump is read into the partition of a language. A dump whose file name ends with the language
+     * of a partition, as skos_categories_pt.ttl.bz2, is only read into that one; the others are read into all of them.
      */
+    private boolean isDumpOf(final String url, final String language) {
+        if (language == null) {
+            return true;
+        }
+
+        String name = url.substring(url.lastIndexOf('/') + 1);
+        if (name.indexOf('.') >= 0) {
+            name = name.substring(0, name.indexOf('.'));
+        }
+        for (String partitionLanguage : this.languages) {
+            if (name.toLowerCase().endsWith("_" + partitionLanguage.toLowerCase())) {
+                return partitionLanguage.equalsIgnoreCase(language);
+            }
+        }
+        return true;
+    }
 
     private TokenCounterNormalizerWrapper createNormalizerWrapper() {
         if (this.stopwords != null) {
@@ -235,13 +819,26 @@ public class DbpediaAnnotator extends JCasAnnotator_ImplBase {
         return new TokenCounterNormalizerWrapper(new DefaultNormalizer());
     }
 
-    private LongestMatchResult getLongestMatch(final List<String> tokens) throws IOException {
-        for (int i = tokens.size(); i >= 1; i--) {
-            List<String> tokensToSentenceBegin = tokens.subList(0, i);
+    private static String getFileName(final String url) {
+        return url.substring(url.lastIndexOf('/') + 1);
+    }
+
+    /**
+     * Opens a DBpedia dump, the bzip2 ones being decompressed by the annotation threads
+     */
+    private InputStream openDump(final String url, final int threads) throws IOException {
+        InputStream in = new URL(url).openStream();
+        return url.endsWith(".bz2") ? new ParallelBZip2InputStream(in, this.executor, threads * 2) : in;
+    }
 
-            Collection<String> concepts = this.skosEngine.getConcepts(StringUtils.join(tokensToSentenceBegin, " "), false);
+    private LongestMatchResult getLongestMatch(final String[] texts, final int begin, final int window,
+            final Map<String, int[]> matches) {
+        for (int i = window; i >= 1; i--) {
+            List<String> tokensToSentenceBegin = Arrays.asList(texts).subList(begin, begin + i);
 
-            if (!concepts.isEmpty()) {
+            int[] concepts = matches.get(StringUtils.join(tokensToSentenceBegin, " "));
+
+            if (concepts != null) {
                 LongestMatchResult result = new LongestMatchResult();
                 result.tokens = tokensToSentenceBegin;
                 result.concepts = concepts;
@@ -253,30 +850,221 @@ public class DbpediaAnnotator extends JCasAnnotator_ImplBase {
         return null;
     }
 
-    private String createHash() {
+    /**
+     * Returns the directory of the DBpedia index built from the given dumps and stop words and partitioned by the given
+     * languages, which holds a directory per partition.
+     */
+    private static File getIndexDirectory(final String dbpediaIndexPath, final String[] dbpediaLinks, final String[] swFileNames,
+            final String[] languages) {
         List<String> identifiers = new ArrayList<String>();
-        identifiers.addAll(Arrays.asList(this.dbpediaLinks));
+        identifiers.addAll(Arrays.asList(dbpediaLinks));
 
-        if (this.swFileNames != null) {
-            identifiers.addAll(Arrays.asList(this.swFileNames));
+        if (swFileNames != null) {
+            identifiers.addAll(Arrays.asList(swFileNames));
+        }
+
+        if (languages != null && languages.length > 0) {
+            identifiers.add("languages=" + StringUtils.join(languages, ','));
         }
 
         Collections.sort(identifiers);
 
-        return DigestUtils.md5Hex(StringUtils.join(identifiers.toArray()));
+        return new File(dbpediaIndexPath + "_" + DigestUtils.md5Hex(StringUtils.join(identifiers.toArray())));
+    }
+
+    /**
+     * Returns the directory of the registry of the concept ids stored in the annotations. It is shared by the indexes
+     * of any dumps under the given path and kept when they are rebuilt, so the ids of the annotations stored before
+     * still resolve to their concepts.
+     */
+    public static File getConceptIdDirectory(final String dbpediaIndexPath) {
+        return new File(dbpediaIndexPath + "_concept_ids");
     }
 
-    private Set<String> readStopWords() throws IOException {
+    private StopWordSet readStopWords(final UimaContext aContext) throws IOException {
         if (this.swFileNames != null) {
-            return new StopWordSet(this.swFileNames).getData();
+            // the same lists of the StopWordAnnotator are shared, not read again
+            List<URL> locations = new ArrayList<>();
+            for (String swFileName : this.swFileNames) {
+                locations.add(ResourceUtils.resolveLocation(swFileName, this, aContext));
+            }
+            return StopWordSet.getShared(locations, this.swFilesEncoding);
         }
 
         return null;
     }
 
+    private static class Chunk implements Comparable<Chunk> {
+        List<int[]> sentences = new ArrayList<>();
+        int tokens;
+
+        @Override
+        public int compareTo(final Chunk other) {
+            return Integer.compare(this.tokens, other.tokens);
+        }
+    }
+
+    /**
+     * The tokens of a document and the stop words among them, read from the CAS once and then shared by the threads.
+     * Tokens are referred to by their ordinal in the document.
+     */
+    private static class DocumentTokens {
+        final String[] texts;
+        final int[] begins;
+        final int[] ends;
+
+        // the tokens with a stop word spanning exactly them, and the spans of the stop words not aligned to a token
+        final BitSet stopWordTokens = new BitSet();
+        final Set<Long> stopWordSpans = new HashSet<>();
+
+        DocumentTokens(final JCas jCas) {
+            Collection<Token> tokens = JCasUtil.select(jCas, Token.class);
+            this.texts = new String[tokens.size()];
+            this.begins = new int[tokens.size()];
+            this.ends = new int[tokens.size()];
+
+            int i = 0;
+            for (Token token : tokens) {
+                this.texts[i] = token.getCoveredText();
+                this.begins[i] = token.getBegin();
+                this.ends[i] = token.getEnd();
+                i++;
+            }
+
+            for (StopWord stopWord : JCasUtil.select(jCas, StopWord.class)) {
+                boolean aligned = false;
+                for (int t = this.firstTokenFrom(stopWord.getBegin()); t < this.begins.length && this.begins[t] == stopWord.getBegin(); t++) {
+                    if (this.ends[t] == stopWord.getEnd()) {
+                        this.stopWordTokens.set(t);
+                        aligned = true;
+                    }
+                }
+                if (!aligned) {
+                    this.stopWordSpans.add(span(stopWord.getBegin(), stopWord.getEnd()));
+                }
+            }
+        }
+
+        /**
+         * Returns the ordinals of the tokens covered by the given span, as {@link JCasUtil#selectCovered} would.
+         */
+        int[] getCoveredTokens(final int begin, final int end) {
+            int first = this.firstTokenFrom(begin);
+            int[] covered = new int[16];
+            int n = 0;
+            for (int t = first; t < this.begins.length && this.begins[t] <= end; t++) {
+                if (this.ends[t] <= end) {
+                    if (n == covered.length) {
+                        covered = Arrays.copyOf(covered, n * 2);
+                    }
+                    covered[n++] = t;
+                }
+            }
+            return Arrays.copyOf(covered, n);
+        }
+
+        /**
+         * Returns whether a stop word spans exactly from the begin of the first token to the end of the last one.
+         */
+        boolean isStopWord(final int firstToken, final int lastToken) {
+            if (firstToken == lastToken && this.stopWordTokens.get(firstToken)) {
+                return true;
+            }
+            return !this.stopWordSpans.isEmpty() && this.stopWordSpans.contains(span(this.begins[firstToken], this.ends[lastToken]));
+        }
+
+        private int firstTokenFrom(final int begin) {
+            int low = 0;
+            int high = this.begins.length;
+            while (low < high) {
+                int mid = low + high >>> 1;
+                if (this.begins[mid] < begin) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+
+        private static long span(final int begin, final int end) {
+            return (long) begin << 32 | end & 0xFFFFFFFFL;
+        }
+    }
+
+    /**
+     * The limits of the annotation of a document, shared by the threads processing its sentences.
+     */
+    private static class DocumentBudget {
+        final long maxLookups;
+        final long deadline;
+
+        final AtomicLong lookups = new AtomicLong();
+        final AtomicInteger skippedSentences = new AtomicInteger();
+
+        // the limit reached, if any
+        volatile String exhausted;
+
+        DocumentBudget(final long maxLookups, final long timeout) {
+            this.maxLookups = maxLookups;
+            this.deadline = timeout > 0 ? System.currentTimeMillis() + timeout : Long.MAX_VALUE;
+        }
+
+        boolean isExhausted() {
+            if (this.exhausted == null && System.currentTimeMillis() > this.deadline) {
+                this.exhausted = "time limit";
+            }
+            return this.exhausted != null;
+        }
+
+        boolean acquireLookups(final int count) {
+            if (this.maxLookups > 0 && this.lookups.addAndGet(count) > this.maxLookups) {
+                this.exhausted = "lookup limit";
+                return false;
+            }
+            return true;
+        }
+    }
+
+    /**
+     * The DBpedia index of a language, or of all of them.
+     */
+    private static class IndexPartition {
+        final String language;
+        final SkosEngineImpl skosEngine;
+        final int maxTokens;
+
+        IndexPartition(final String language, final SkosEngineImpl skosEngine, final int maxTokens) {
+            this.language = language;
+            this.skosEngine = skosEngine;
+            this.maxTokens = maxTokens;
+        }
+    }
+
+    /**
+     * The longest matches of a sentence, by their first token and number of tokens in the sentence, with the number of
+     * tokens and the check hash of the sentence they were found in.
+     */
+    private static class SentenceMatches {
+        final int[] starts;
+        final int[] lengths;
+        final int[][] concepts;
+
+        final int tokenCount;
+        final long check;
+
+        SentenceMatches(final int size, final int tokenCount, final long check) {
+            this.starts = new int[size];
+            this.lengths = new int[size];
+            this.concepts = new int[size][];
+            this.tokenCount = tokenCount;
+            this.check = check;
+        }
+    }
+
     private class LongestMatchResult {
         List<String> tokens;
-        Collection<String> concepts;
+        int[] concepts;
 
         int begin;
         int end;
@@ -284,7 +1072,8 @@ public class DbpediaAnnotator extends JCasAnnotator_ImplBase {
 
     private class TokenCounterNormalizerWrapper implements Normalizer {
 
-        int maxTokens;
+        // updated by the threads indexing the dumps
+        AtomicInteger maxTokens = new AtomicInteger();
 
         Normalizer normalizer;
 
@@ -296,7 +1085,7 @@ public class DbpediaAnnotator extends JCasAnnotator_ImplBase {
         public String normalize(final String value) {
             String normalize = this.normalizer.normalize(value);
 
-            this.maxTokens = Math.max(this.maxTokens, normalize.split(" ").length);
+            this.maxTokens.accumulateAndGet(normalize.split(" ").length, Math::max);
 
             return normalize;
         }
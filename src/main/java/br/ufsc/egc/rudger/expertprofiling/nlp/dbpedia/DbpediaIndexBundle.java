@@ -0,0 +1,377 @@
+package br.ufsc.egc.rudger.expertprofiling.nlp.dbpedia;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.io.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A prebuilt DBpedia index, which a new installation imports or opens in place instead of downloading and indexing the
+ * dumps. A bundle is a directory holding a copy of the index directory of the {@link DbpediaAnnotator}, with its
+ * conf.properties, partitions and derived structures, and a manifest with the version of the format, the name of the
+ * index directory, which identifies the dumps, stop words and languages it was built from, the transitive closure depth
+ * and Bloom filter false positive probability its derived structures were built with, and the size and SHA-256 digest
+ * of each file. The manifest is written last, so an interrupted export is not a bundle.
+ *
+ * <pre>
+ * DbpediaIndexBundle export &lt;index directory&gt; &lt;bundle directory&gt;
+ * DbpediaIndexBundle import &lt;bundle directory&gt; &lt;index directory&gt;
+ * DbpediaIndexBundle verify &lt;bundle directory&gt;
+ * </pre>
+ */
+public class DbpediaIndexBundle {
+
+    static final String MANIFEST_FILE_NAME = "bundle.properties";
+
+    private static final int FORMAT_VERSION = 1;
+
+    private static final String FORMAT = "format";
+    private static final String INDEX = "index";
+    private static final String FILE_PREFIX = "file.";
+
+    private static final List<String> SETTINGS = Arrays.asList(DbpediaAnnotator.TRANSITIVE_CLOSURE_DEPTH, DbpediaAnnotator.BLOOM_FILTER_FPP);
+
+    private static final String CONF_FILE_NAME = "conf.properties";
+
+    private static final String WRITE_LOCK_NAME = "write.lock";
+
+    private static final Logger logger = LoggerFactory.getLogger(DbpediaIndexBundle.class);
+
+    private final File dir;
+
+    private final String indexName;
+
+    /**
+     * The settings the derived structures were built with, by their key in the conf.properties of the index, which
+     * are missing when its partitions were built with different ones
+     */
+    private final Properties settings;
+
+    /**
+     * The size and digest of each file, by its path relative to the bundle, separated by slashes
+     */
+    private final Map<String, FileEntry> files;
+
+    private DbpediaIndexBundle(final File dir, final String indexName, final Properties settings, final Map<String, FileEntry> files) {
+        this.dir = dir;
+        this.indexName = indexName;
+        this.settings = settings;
+        this.files = files;
+    }
+
+    /**
+     * Reads the manifest of a bundle
+     *
+     * @throws IOException if the directory is not a bundle, has another version of the format or lists a file outside
+     *             of the bundle
+     */
+    public static DbpediaIndexBundle open(final File dir) throws IOException {
+        File manifest = new File(dir, MANIFEST_FILE_NAME);
+        if (!manifest.isFile()) {
+            throw new IOException("'" + dir.getAbsolutePath() + "' is not a DBpedia index bundle: " + MANIFEST_FILE_NAME + " not found");
+        }
+
+        Properties props = new Properties();
+        try (InputStream in = new FileInputStream(manifest)) {
+            props.load(in);
+        }
+
+        String format = props.getProperty(FORMAT);
+        if (!String.valueOf(FORMAT_VERSION).equals(format)) {
+            throw new IOException("Unsupported DBpedia index bundle format " + format + " in '" + dir.getAbsolutePath() + "', expected " + FORMAT_VERSION);
+        }
+
+        Properties settings = new Properties();
+        Map<String, FileEntry> files = new TreeMap<>();
+        for (String key : props.stringPropertyNames()) {
+            if (key.startsWith(FILE_PREFIX)) {
+                String file = key.substring(FILE_PREFIX.length());
+                // the bundle may come from another installation, so its files must stay in the bundle and the index
+                resolve(dir, file);
+
+                String[] value = props.getProperty(key).split(" ");
+                if (value.length != 2 || !value[0].matches("[0-9]{1,18}")) {
+                    throw new IOException("Invalid entry of '" + file + "' in the manifest of the DBpedia index bundle '" + dir.getAbsolutePath() + "'");
+                }
+                files.put(file, new FileEntry(Long.parseLong(value[0]), value[1]));
+            } else if (SETTINGS.contains(key)) {
+                settings.put(key, props.getProperty(key));
+            }
+        }
+
+        return new DbpediaIndexBundle(dir.getAbsoluteFile(), props.getProperty(INDEX), settings, files);
+    }
+
+    /**
+     * Copies an index directory into a new bundle, which must not exist or be empty
+     */
+    public static DbpediaIndexBundle export(final File index, final File dir) throws IOException {
+        // the configuration is in the index directory, or in the one of each partition
+        List<String> indexFiles = listFiles(index);
+        if (!indexFiles.stream().anyMatch(file -> file.equals(CONF_FILE_NAME) || file.endsWith("/" + CONF_FILE_NAME))) {
+            throw new IOException("'" + index.getAbsolutePath() + "' is not a DBpedia index directory: " + CONF_FILE_NAME + " not found");
+        }
+        String[] existing = dir.list();
+        if (existing != null && existing.length > 0) {
+            throw new IOException("The bundle directory '" + dir.getAbsolutePath() + "' is not empty");
+        }
+
+        Properties settings = readSettings(index, indexFiles);
+
+        Map<String, FileEntry> files = new TreeMap<>();
+        for (String file : indexFiles) {
+            files.put(file, copy(new File(index, file), new File(dir, file)));
+        }
+
+        Properties props = new Properties();
+        props.put(FORMAT, String.valueOf(FORMAT_VERSION));
+        props.put(INDEX, index.getAbsoluteFile().getName());
+        props.putAll(settings);
+        for (Map.Entry<String, FileEntry> file : files.entrySet()) {
+            props.put(FILE_PREFIX + file.getKey(), file.getValue().toString());
+        }
+        try (OutputStream out = new FileOutputStream(new File(dir, MANIFEST_FILE_NAME))) {
+            props.store(out, null);
+        }
+
+        return new DbpediaIndexBundle(dir.getAbsoluteFile(), index.getAbsoluteFile().getName(), settings, files);
+    }
+
+    /**
+     * Reads the settings the derived structures were built with from the conf.properties of each partition, keeping
+     * the ones all of them agree on
+     */
+    private static Properties readSettings(final File index, final List<String> indexFiles) throws IOException {
+        Properties settings = null;
+        for (String file : indexFiles) {
+            if (file.equals(CONF_FILE_NAME) || file.endsWith("/" + CONF_FILE_NAME)) {
+                Properties conf = new Properties();
+                try (InputStream in = new FileInputStream(new File(index, file))) {
+                    conf.load(in);
+                }
+
+                if (settings == null) {
+                    settings = new Properties();
+                    for (String key : SETTINGS) {
+                        if (conf.getProperty(key) != null) {
+                            settings.put(key, conf.getProperty(key));
+                        }
+                    }
+                } else {
+                    settings.entrySet().removeIf(setting -> !setting.getValue().equals(conf.getProperty((String) setting.getKey())));
+                }
+            }
+        }
+        return settings;
+    }
+
+    /**
+     * @return the name of the index directory the bundle was exported from
+     */
+    public String getIndexName() {
+        return this.indexName;
+    }
+
+    public File getDirectory() {
+        return this.dir;
+    }
+
+    /**
+     * Returns whether the derived structures of the bundle were built with the given settings, so it can be opened in
+     * place without rebuilding them. The bundles exported before the settings were recorded never were.
+     */
+    public boolean hasSettings(final int transitiveClosureDepth, final double bloomFilterFpp) {
+        String depth = this.settings.getProperty(DbpediaAnnotator.TRANSITIVE_CLOSURE_DEPTH);
+        String fpp = this.settings.getProperty(DbpediaAnnotator.BLOOM_FILTER_FPP);
+        // the probability is a float configuration parameter, so compare it with a tolerance
+        return depth != null && fpp != null && Integer.parseInt(depth) == transitiveClosureDepth
+                && Math.abs(Double.parseDouble(fpp) - bloomFilterFpp) <= 1e-6;
+    }
+
+    /**
+     * Checks that every file of the manifest is in the bundle with its size, which is cheap enough to be done before
+     * each use in place. The digests are checked by {@link #verify()} and {@link #importTo(File)}.
+     */
+    public void checkSizes() throws IOException {
+        for (Map.Entry<String, FileEntry> file : this.files.entrySet()) {
+            File bundled = resolve(this.dir, file.getKey());
+            if (!bundled.isFile() || bundled.length() != file.getValue().size) {
+                throw new IOException("DBpedia index bundle '" + this.dir + "' is incomplete: '" + file.getKey() + "' is missing or has another size");
+            }
+        }
+    }
+
+    /**
+     * Checks the size and digest of every file of the bundle
+     */
+    public void verify() throws IOException {
+        this.checkSizes();
+        for (Map.Entry<String, FileEntry> file : this.files.entrySet()) {
+            try (DigestInputStream in = new DigestInputStream(new FileInputStream(resolve(this.dir, file.getKey())), sha256())) {
+                checkDigest(file.getKey(), file.getValue(), digest(in, null));
+            }
+        }
+    }
+
+    /**
+     * Copies the bundle into an index directory, which must not exist, checking the digest of each file. The files are
+     * copied next to the directory and moved to it once all of them were checked.
+     */
+    public void importTo(final File index) throws IOException {
+        if (index.exists()) {
+            throw new IOException("The index directory '" + index.getAbsolutePath() + "' already exists");
+        }
+
+        this.checkSizes();
+
+        long start = System.currentTimeMillis();
+        File partial = new File(index.getAbsolutePath() + "_import");
+        FileUtils.deleteQuietly(partial);
+        boolean success = false;
+        try {
+            for (Map.Entry<String, FileEntry> file : this.files.entrySet()) {
+                checkDigest(file.getKey(), file.getValue(), copy(resolve(this.dir, file.getKey()), resolve(partial, file.getKey())));
+            }
+
+            try {
+                Files.move(partial.toPath(), index.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(partial.toPath(), index.toPath());
+            }
+            success = true;
+        } finally {
+            if (!success) {
+                FileUtils.deleteQuietly(partial);
+            }
+        }
+
+        logger.info("DBpedia index bundle '" + this.dir + "' imported into '" + index.getAbsolutePath() + "' in " + (System.currentTimeMillis() - start)
+                + " ms.");
+    }
+
+    private static void checkDigest(final String file, final FileEntry expected, final FileEntry actual) throws IOException {
+        if (expected.size != actual.size || !expected.digest.equals(actual.digest)) {
+            throw new IOException("Checksum failed for '" + file + "' of the DBpedia index bundle: expected " + expected + " but found " + actual);
+        }
+    }
+
+    /**
+     * Returns a file of the bundle or of the index by its relative path, which must not leave the directory
+     */
+    private static File resolve(final File dir, final String file) throws IOException {
+        Path root = dir.getAbsoluteFile().toPath().normalize();
+        boolean valid = !file.isEmpty() && file.indexOf('\\') < 0 && file.indexOf(':') < 0;
+        for (String name : file.split("/", -1)) {
+            valid &= !name.isEmpty() && !name.equals(".") && !name.equals("..");
+        }
+
+        Path path = valid ? root.resolve(file.replace('/', File.separatorChar)).normalize() : null;
+        if (path == null || path.equals(root) || !path.startsWith(root)) {
+            throw new IOException("Invalid file '" + file + "' in the DBpedia index bundle: not a relative path inside the bundle");
+        }
+        return path.toFile();
+    }
+
+    /**
+     * Returns the files of a directory and of its subdirectories, by their relative path separated by slashes
+     */
+    private static List<String> listFiles(final File dir) throws IOException {
+        Path root = dir.toPath();
+        try (Stream<Path> paths = Files.walk(root)) {
+            List<String> files = paths.filter(Files::isRegularFile)
+                    .filter(path -> !path.getFileName().toString().equals(WRITE_LOCK_NAME))
+                    .map(path -> root.relativize(path).toString().replace(File.separatorChar, '/'))
+                    .collect(Collectors.toCollection(ArrayList::new));
+            Collections.sort(files);
+            return files;
+        }
+    }
+
+    /**
+     * Copies a file, returning its size and digest
+     */
+    private static FileEntry copy(final File source, final File target) throws IOException {
+        target.getParentFile().mkdirs();
+        try (DigestInputStream in = new DigestInputStream(new FileInputStream(source), sha256()); OutputStream out = new FileOutputStream(target)) {
+            return digest(in, out);
+        }
+    }
+
+    private static FileEntry digest(final DigestInputStream in, final OutputStream out) throws IOException {
+        byte[] buffer = new byte[1 << 16];
+        long size = 0;
+        for (int read = in.read(buffer); read >= 0; read = in.read(buffer)) {
+            if (out != null) {
+                out.write(buffer, 0, read);
+            }
+            size += read;
+        }
+        return new FileEntry(size, Hex.encodeHexString(in.getMessageDigest().digest()));
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public static void main(final String[] args) throws IOException {
+        if (args.length == 3 && "export".equals(args[0])) {
+            DbpediaIndexBundle bundle = export(new File(args[1]), new File(args[2]));
+            System.out.println("Exported " + bundle.files.size() + " files of '" + bundle.indexName + "' to '" + bundle.dir + "'.");
+        } else if (args.length == 3 && "import".equals(args[0])) {
+            open(new File(args[1])).importTo(new File(args[2]));
+            System.out.println("Imported '" + args[1] + "' into '" + args[2] + "'.");
+        } else if (args.length == 2 && "verify".equals(args[0])) {
+            DbpediaIndexBundle bundle = open(new File(args[1]));
+            bundle.verify();
+            System.out.println("Bundle of '" + bundle.indexName + "' verified (" + bundle.files.size() + " files).");
+        } else {
+            System.err.println("Usage: DbpediaIndexBundle export <index directory> <bundle directory>");
+            System.err.println("       DbpediaIndexBundle import <bundle directory> <index directory>");
+            System.err.println("       DbpediaIndexBundle verify <bundle directory>");
+            System.exit(1);
+        }
+    }
+
+    private static class FileEntry {
+        final long size;
+        final String digest;
+
+        FileEntry(final long size, final String digest) {
+            this.size = size;
+            this.digest = digest;
+        }
+
+        @Override
+        public String toString() {
+            return this.size + " " + this.digest;
+        }
+    }
+
+}
@@ -1,15 +1,15 @@
 package br.ufsc.egc.rudger.expertprofiling.nlp.dbpedia;
 
-import java.util.Set;
 import java.util.StringJoiner;
 
 import br.ufsc.egc.rudger.expertprofiling.normalizer.DefaultNormalizer;
+import br.ufsc.egc.rudger.expertprofiling.stopword.StopWordSet;
 
 public class StopWordNormalizer extends DefaultNormalizer {
     
-    private Set<String> stopwords;
+    private StopWordSet stopwords;
 
-    public StopWordNormalizer(final Set<String> stopwords) {
+    public StopWordNormalizer(final StopWordSet stopwords) {
         this.stopwords = stopwords;
     }
 
@@ -1,12 +1,14 @@
 package br.ufsc.egc.rudger.expertprofiling.nlp.stopword;
 
 import static de.tudarmstadt.ukp.dkpro.core.api.resources.ResourceUtils.resolveLocation;
-import static org.apache.commons.io.IOUtils.closeQuietly;
 
 import java.io.IOException;
-import java.io.InputStream;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -14,12 +16,12 @@ import org.apache.uima.UimaContext;
 import org.apache.uima.analysis_engine.AnalysisEngineProcessException;
 import org.apache.uima.fit.component.JCasAnnotator_ImplBase;
 import org.apache.uima.fit.descriptor.ConfigurationParameter;
+import org.apache.uima.fit.descriptor.ExternalResource;
 import org.apache.uima.fit.descriptor.TypeCapability;
 import org.apache.uima.fit.util.JCasUtil;
 import org.apache.uima.jcas.JCas;
 import org.apache.uima.resource.ResourceInitializationException;
 
-import br.ufsc.egc.rudger.expertprofiling.normalizer.DefaultNormalizer;
 import br.ufsc.egc.rudger.expertprofiling.stopword.StopWordSet;
 import de.tudarmstadt.ukp.dkpro.core.api.parameter.ComponentParameters;
 import de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.StopWord;
@@ -42,7 +44,7 @@ public class StopWordAnnotator extends JCasAnnotator_ImplBase {
      * causes the list to be used for every document. Example: "[de]classpath:/stopwords/en_articles.txt"
      */
     public static final String PARAM_MODEL_LOCATION = ComponentParameters.PARAM_MODEL_LOCATION;
-    @ConfigurationParameter(name = PARAM_MODEL_LOCATION, mandatory = true)
+    @ConfigurationParameter(name = PARAM_MODEL_LOCATION, mandatory = false)
     private Set<String> swFileNames;
 
     /**
@@ -52,9 +54,14 @@ public class StopWordAnnotator extends JCasAnnotator_ImplBase {
     @ConfigurationParameter(name = PARAM_MODEL_ENCODING, mandatory = true, defaultValue = "UTF-8")
     private String modelEncoding;
 
-    private Map<String, StopWordSet> stopWordSets;
+    /**
+     * A shared {@link StopWordSet} resource used for every document, besides the lists of {@link #PARAM_MODEL_LOCATION}.
+     */
+    public static final String RES_STOP_WORDS = "stopWords";
+    @ExternalResource(key = RES_STOP_WORDS, mandatory = false)
+    private StopWordSet stopWords;
 
-    private DefaultNormalizer normalizer;
+    private Map<String, StopWordSet> stopWordSets;
 
     @Override
     public void initialize(final UimaContext context) throws ResourceInitializationException {
@@ -62,9 +69,9 @@ public class StopWordAnnotator extends JCasAnnotator_ImplBase {
 
         try {
             this.stopWordSets = new HashMap<String, StopWordSet>();
-            this.normalizer = new DefaultNormalizer();
 
-            for (String swFileName : this.swFileNames) {
+            Map<String, List<URL>> locations = new LinkedHashMap<>();
+            for (String swFileName : this.swFileNames != null ? this.swFileNames : Collections.<String> emptySet()) {
                 String fileLocale = "*";
                 // Check if a locale is defined for the file
                 if (swFileName.startsWith("[")) {
@@ -72,24 +79,14 @@ public class StopWordAnnotator extends JCasAnnotator_ImplBase {
                     swFileName = swFileName.substring(swFileName.indexOf(']') + 1);
                 }
 
-                // Fetch the set for the specified locale
-                StopWordSet set = this.stopWordSets.get(fileLocale);
-                if (set == null) {
-                    set = new StopWordSet();
-                    this.stopWordSets.put(fileLocale, set);
-                }
+                locations.computeIfAbsent(fileLocale, locale -> new ArrayList<>()).add(resolveLocation(swFileName, this, context));
+            }
 
-                // Load the set
-                URL source = resolveLocation(swFileName, this, context);
-                InputStream is = null;
-                try {
-                    is = source.openStream();
-                    set.load(is, this.modelEncoding);
-                } finally {
-                    closeQuietly(is);
-                }
+            // the lists are only read by the first engine of the JVM using them
+            for (Map.Entry<String, List<URL>> entry : locations.entrySet()) {
+                this.stopWordSets.put(entry.getKey(), StopWordSet.getShared(entry.getValue(), this.modelEncoding));
 
-                this.getLogger().info("Loaded stopwords for locale [" + fileLocale + "] from [" + source + "]");
+                this.getLogger().info("Using stopwords for locale [" + entry.getKey() + "] from " + entry.getValue());
             }
         } catch (IOException e1) {
             throw new ResourceInitializationException(e1);
@@ -101,10 +98,13 @@ public class StopWordAnnotator extends JCasAnnotator_ImplBase {
         StopWordSet anyLocaleSet = this.stopWordSets.get("*");
         StopWordSet casLocaleSet = this.stopWordSets.get(aJCas.getDocumentLanguage());
 
-        if (anyLocaleSet != null || casLocaleSet != null) {
+        if (anyLocaleSet != null || casLocaleSet != null || this.stopWords != null) {
+            String text = aJCas.getDocumentText();
             for (Token token : JCasUtil.select(aJCas, Token.class)) {
-                String candidate = this.normalizer.normalize(token.getCoveredText().toLowerCase());
-                if ((casLocaleSet != null && casLocaleSet.contains(candidate)) || (anyLocaleSet != null && anyLocaleSet.contains(candidate))) {
+                // the sets fold the span of the token while looking it up
+                int begin = token.getBegin();
+                int length = token.getEnd() - begin;
+                if (contains(casLocaleSet, text, begin, length) || contains(anyLocaleSet, text, begin, length) || contains(this.stopWords, text, begin, length)) {
                     aJCas.getCas().addFsToIndexes(new StopWord(aJCas, token.getBegin(), token.getEnd()));
                 }
             }
@@ -112,4 +112,8 @@ public class StopWordAnnotator extends JCasAnnotator_ImplBase {
 
     }
 
+    private static boolean contains(final StopWordSet set, final String text, final int begin, final int length) {
+        return set != null && set.contains(text, begin, length);
+    }
+
 }
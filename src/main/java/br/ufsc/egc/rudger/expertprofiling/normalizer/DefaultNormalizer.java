@@ -1,13 +1,126 @@
 package br.ufsc.egc.rudger.expertprofiling.normalizer;
 
+import java.util.Locale;
+
+/**
+ * Decomposes the text (NFD), removes the non ASCII characters and lower cases it.
+ *
+ * The ASCII characters are all starters of the decomposition, so the result is the concatenation of what is left of
+ * each character. That is precomputed for every character of the BMP, hence most texts are folded with a table lookup
+ * per character and a lower case ASCII text is returned as is. The surrogates, the few characters leaving more than
+ * one ASCII character and the Turkic locales, whose lower case of 'I' is not ASCII, take the slow path.
+ */
 public class DefaultNormalizer implements Normalizer {
-    
+
+    // table values that are not characters of the result
+    private static final char NONE = '\uFFFF';
+    private static final char SLOW = '\uFFFE';
+
+    private static final char[] FOLDING = createFoldingTable();
+
+    /**
+     * Returned by {@link #foldChar(char)} for the characters removed from the text.
+     */
+    public static final int REMOVED = -1;
+
+    /**
+     * Returned by {@link #foldChar(char)} when the text can only be folded by {@link #normalize(String)}.
+     */
+    public static final int UNFOLDABLE = -2;
+
     @Override
     public String normalize(final String value) {
+        if (isTurkicLocale()) {
+            return slowNormalize(value);
+        }
+
+        int n = value.length();
+        int i = 0;
+        while (i < n && FOLDING[value.charAt(i)] == value.charAt(i)) {
+            i++;
+        }
+        if (i == n) {
+            return value;
+        }
+
+        StringBuilder out = new StringBuilder(n);
+        out.append(value, 0, i);
+        if (!fold(value, i, out)) {
+            return slowNormalize(value);
+        }
+        return out.toString();
+    }
+
+    /**
+     * Appends the normalized value to the given buffer, which can be reused between calls.
+     */
+    public void normalize(final CharSequence value, final StringBuilder out) {
+        if (!isTurkicLocale()) {
+            int length = out.length();
+            if (fold(value, 0, out)) {
+                return;
+            }
+            out.setLength(length);
+        }
+        out.append(slowNormalize(value.toString()));
+    }
+
+    /**
+     * Folds a single character, as {@link #normalize(String)} does, so callers can fold a text without copying it.
+     *
+     * @return the folded character, {@link #REMOVED} or {@link #UNFOLDABLE}
+     */
+    public static int foldChar(final char c) {
+        char folded = FOLDING[c];
+        if (folded == SLOW || isTurkicLocale()) {
+            return UNFOLDABLE;
+        }
+        return folded == NONE ? REMOVED : folded;
+    }
+
+    private static boolean fold(final CharSequence value, final int from, final StringBuilder out) {
+        for (int i = from; i < value.length(); i++) {
+            char folded = FOLDING[value.charAt(i)];
+            if (folded == SLOW) {
+                return false;
+            }
+            if (folded != NONE) {
+                out.append(folded);
+            }
+        }
+        return true;
+    }
+
+    private static String slowNormalize(final String value) {
         String text = java.text.Normalizer.normalize(value, java.text.Normalizer.Form.NFD);
         text = text.replaceAll("[^\\p{ASCII}]", "");
-       
+
         return text.toLowerCase();
     }
 
+    private static boolean isTurkicLocale() {
+        String language = Locale.getDefault().getLanguage();
+        return "tr".equals(language) || "az".equals(language);
+    }
+
+    private static char[] createFoldingTable() {
+        char[] table = new char[Character.MAX_VALUE + 1];
+        for (int c = 0; c <= Character.MAX_VALUE; c++) {
+            // NONE itself would be mistaken for an unchanged character
+            if (Character.isSurrogate((char) c) || c == NONE) {
+                table[c] = SLOW;
+                continue;
+            }
+
+            StringBuilder folded = new StringBuilder();
+            for (char d : java.text.Normalizer.normalize(String.valueOf((char) c), java.text.Normalizer.Form.NFD).toCharArray()) {
+                if (d < 0x80) {
+                    folded.append(Character.toLowerCase(d));
+                }
+            }
+            table[c] = folded.length() == 0 ? NONE : folded.length() == 1 ? folded.charAt(0) : SLOW;
+        }
+        return table;
+    }
+
 }
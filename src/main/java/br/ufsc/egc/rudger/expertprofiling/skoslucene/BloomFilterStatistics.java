@@ -0,0 +1,63 @@
+package br.ufsc.egc.rudger.expertprofiling.skoslucene;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters of the label Bloom filter placed in front of the concept lookups. They are updated concurrently by the
+ * annotation threads.
+ */
+public class BloomFilterStatistics {
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder falsePositives = new LongAdder();
+
+    void recordHit() {
+        this.hits.increment();
+    }
+
+    void recordMiss() {
+        this.misses.increment();
+    }
+
+    void recordFalsePositive() {
+        this.falsePositives.increment();
+    }
+
+    /**
+     * @return the lookups the filter let through and that found concepts
+     */
+    public long getHits() {
+        return this.hits.sum();
+    }
+
+    /**
+     * @return the lookups the filter rejected without searching the index
+     */
+    public long getMisses() {
+        return this.misses.sum();
+    }
+
+    /**
+     * @return the lookups the filter let through but that found no concept
+     */
+    public long getFalsePositives() {
+        return this.falsePositives.sum();
+    }
+
+    /**
+     * @return the observed false positive rate among the labels which are not in the dictionary
+     */
+    public double getFalsePositiveRate() {
+        long falsePositives = this.getFalsePositives();
+        long negatives = falsePositives + this.getMisses();
+        return negatives == 0 ? 0 : (double) falsePositives / negatives;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("hits=%d, misses=%d, falsePositives=%d, falsePositiveRate=%.4f", this.getHits(), this.getMisses(), this.getFalsePositives(),
+                this.getFalsePositiveRate());
+    }
+
+}
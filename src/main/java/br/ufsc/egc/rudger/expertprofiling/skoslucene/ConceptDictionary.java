@@ -0,0 +1,238 @@
+package br.ufsc.egc.rudger.expertprofiling.skoslucene;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.lucene.codecs.CodecUtil;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.MultiDocValues;
+import org.apache.lucene.index.MultiFields;
+import org.apache.lucene.index.SortedDocValues;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.store.IndexOutput;
+import org.apache.lucene.store.RandomAccessInput;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.IOUtils;
+
+/**
+ * Maps dense int ids of concepts to their URIs. The dictionary of a concept index maps its document ids, so the lookups
+ * can carry ids and the URIs are only read back when needed. The one of a {@link ConceptIdRegistry} maps the ids stored
+ * in the annotations and is only ever extended. Both files are memory-mapped.
+ */
+public class ConceptDictionary implements Closeable, LuceneIndexFields {
+
+    static final String OFFSETS_FILE_NAME = "concepts.off";
+    static final String URIS_FILE_NAME = "concepts.uri";
+
+    private static final String OFFSETS_CODEC = "ConceptDictionaryOffsets";
+    private static final String URIS_CODEC = "ConceptDictionaryUris";
+    private static final int VERSION = 0;
+
+    private static final String PENDING_SUFFIX = ".pending";
+
+    private static final Set<String> URI_FIELD = Collections.singleton(FIELD_URI);
+
+    private final IndexInput offsetsInput;
+    private final IndexInput urisInput;
+
+    private final RandomAccessInput offsets;
+    private final long urisStart;
+    private final int size;
+
+    private ConceptDictionary(final IndexInput offsetsInput, final IndexInput urisInput) throws IOException {
+        this.offsetsInput = offsetsInput;
+        this.urisInput = urisInput;
+
+        CodecUtil.retrieveChecksum(offsetsInput);
+        CodecUtil.retrieveChecksum(urisInput);
+
+        long offsetsStart = CodecUtil.headerLength(OFFSETS_CODEC);
+        long offsetsLength = offsetsInput.length() - offsetsStart - CodecUtil.footerLength();
+        this.offsets = offsetsInput.randomAccessSlice(offsetsStart, offsetsLength);
+        this.size = (int) (offsetsLength / Long.BYTES - 1);
+        this.urisStart = CodecUtil.headerLength(URIS_CODEC);
+    }
+
+    /**
+     * Returns the URI of the concept with the given id, or null if there is no such concept. This method is thread
+     * safe.
+     */
+    public String getUri(final int conceptId) throws IOException {
+        if (conceptId < 0 || conceptId >= this.size) {
+            return null;
+        }
+
+        BytesRef bytes = this.getUriBytes(conceptId);
+        return bytes.length > 0 ? new String(bytes.bytes, bytes.offset, bytes.length, StandardCharsets.UTF_8) : null;
+    }
+
+    /**
+     * Returns the UTF-8 bytes of the URI of an id, empty for a deleted concept
+     */
+    private BytesRef getUriBytes(final int conceptId) throws IOException {
+        long start = this.offsets.readLong((long) conceptId * Long.BYTES);
+        long end = this.offsets.readLong((long) (conceptId + 1) * Long.BYTES);
+
+        byte[] bytes = new byte[(int) (end - start)];
+        IndexInput in = this.urisInput.clone();
+        in.seek(this.urisStart + start);
+        in.readBytes(bytes, 0, bytes.length);
+        return new BytesRef(bytes);
+    }
+
+    /**
+     * @return the number of concept ids, including the ones of deleted concepts
+     */
+    public int size() {
+        return this.size;
+    }
+
+    @Override
+    public void close() throws IOException {
+        IOUtils.close(this.offsetsInput, this.urisInput);
+    }
+
+    /**
+     * Returns whether the directory of a {@link ConceptIdRegistry} has a dictionary
+     */
+    public static boolean exists(final Directory dir) throws IOException {
+        return Arrays.asList(dir.listAll()).containsAll(Arrays.asList(OFFSETS_FILE_NAME, URIS_FILE_NAME));
+    }
+
+    /**
+     * Returns whether the concept index has the dictionary of the given commit generation
+     */
+    static boolean exists(final Directory dir, final long generation) throws IOException {
+        return Arrays.asList(dir.listAll()).containsAll(
+                Arrays.asList(DerivedFiles.getFileName(OFFSETS_FILE_NAME, generation), DerivedFiles.getFileName(URIS_FILE_NAME, generation)));
+    }
+
+    /**
+     * Opens the dictionary of a {@link ConceptIdRegistry}
+     */
+    public static ConceptDictionary open(final Directory dir) throws IOException {
+        return open(dir, OFFSETS_FILE_NAME, URIS_FILE_NAME);
+    }
+
+    /**
+     * Opens the dictionary of the given commit generation of the concept index
+     */
+    static ConceptDictionary open(final Directory dir, final long generation) throws IOException {
+        return open(dir, DerivedFiles.getFileName(OFFSETS_FILE_NAME, generation), DerivedFiles.getFileName(URIS_FILE_NAME, generation));
+    }
+
+    private static ConceptDictionary open(final Directory dir, final String offsetsFileName, final String urisFileName) throws IOException {
+        IndexInput offsetsInput = null;
+        IndexInput urisInput = null;
+        boolean success = false;
+        try {
+            offsetsInput = dir.openInput(offsetsFileName, IOContext.READ);
+            urisInput = dir.openInput(urisFileName, IOContext.READ);
+            ConceptDictionary dictionary = new ConceptDictionary(offsetsInput, urisInput);
+            success = true;
+            return dictionary;
+        } finally {
+            if (!success) {
+                IOUtils.closeWhileHandlingException(offsetsInput, urisInput);
+            }
+        }
+    }
+
+    /**
+     * Writes the URIs of the concepts of the index, in document id order. Deleted concepts get an empty URI. The URIs
+     * are read from their doc values, or from the stored fields for the indexes written without them.
+     */
+    static void write(final IndexReader reader, final Directory dir, final long generation) throws IOException {
+        String offsetsFileName = DerivedFiles.getFileName(OFFSETS_FILE_NAME, generation);
+        String urisFileName = DerivedFiles.getFileName(URIS_FILE_NAME, generation);
+        for (String fileName : Arrays.asList(offsetsFileName, urisFileName)) {
+            if (Arrays.asList(dir.listAll()).contains(fileName)) {
+                dir.deleteFile(fileName);
+            }
+        }
+
+        Bits liveDocs = MultiFields.getLiveDocs(reader);
+        SortedDocValues uriValues = MultiDocValues.getSortedValues(reader, FIELD_URI);
+        write(dir, offsetsFileName, urisFileName, reader.maxDoc(),
+                doc -> liveDocs != null && !liveDocs.get(doc) ? null : readUri(reader, uriValues, doc));
+    }
+
+    /**
+     * Extends the dictionary of a directory, creating it if missing, with the URIs of the ids following the existing
+     * ones. The files are written aside and renamed over the previous ones, the URIs first, so the offsets always
+     * describe a prefix of the URIs, even to a reader opening the dictionary meanwhile.
+     */
+    static void append(final Directory dir, final List<BytesRef> uris) throws IOException {
+        String offsetsFileName = OFFSETS_FILE_NAME + PENDING_SUFFIX;
+        String urisFileName = URIS_FILE_NAME + PENDING_SUFFIX;
+        // left by an interrupted append
+        for (String fileName : Arrays.asList(offsetsFileName, urisFileName)) {
+            if (Arrays.asList(dir.listAll()).contains(fileName)) {
+                dir.deleteFile(fileName);
+            }
+        }
+
+        try (ConceptDictionary previous = exists(dir) ? open(dir) : null) {
+            int size = previous != null ? previous.size : 0;
+            write(dir, offsetsFileName, urisFileName, size + uris.size(), id -> id < size ? previous.getUriBytes(id) : uris.get(id - size));
+        }
+
+        dir.sync(Arrays.asList(offsetsFileName, urisFileName));
+        dir.renameFile(urisFileName, URIS_FILE_NAME);
+        dir.renameFile(offsetsFileName, OFFSETS_FILE_NAME);
+    }
+
+    private static void write(final Directory dir, final String offsetsFileName, final String urisFileName, final int size, final UriSource uris)
+            throws IOException {
+        try (IndexOutput offsetsOut = dir.createOutput(offsetsFileName, IOContext.DEFAULT);
+                IndexOutput urisOut = dir.createOutput(urisFileName, IOContext.DEFAULT)) {
+            CodecUtil.writeHeader(offsetsOut, OFFSETS_CODEC, VERSION);
+            CodecUtil.writeHeader(urisOut, URIS_CODEC, VERSION);
+
+            long written = 0;
+            for (int id = 0; id < size; id++) {
+                offsetsOut.writeLong(written);
+
+                BytesRef bytes = uris.get(id);
+                if (bytes != null) {
+                    urisOut.writeBytes(bytes.bytes, bytes.offset, bytes.length);
+                    written += bytes.length;
+                }
+            }
+            offsetsOut.writeLong(written);
+
+            CodecUtil.writeFooter(offsetsOut);
+            CodecUtil.writeFooter(urisOut);
+        }
+    }
+
+    /**
+     * Returns the URI of a concept of the index, read from its doc values if the index has them or else from its
+     * stored fields, or null if it has none
+     */
+    static BytesRef readUri(final IndexReader reader, final SortedDocValues uriValues, final int doc) throws IOException {
+        if (uriValues != null) {
+            return uriValues.get(doc);
+        }
+        String uri = reader.document(doc, URI_FIELD).get(FIELD_URI);
+        return uri != null ? new BytesRef(uri) : null;
+    }
+
+    /**
+     * The URI of each id of a dictionary being written, or null for none
+     */
+    private interface UriSource {
+
+        BytesRef get(int id) throws IOException;
+
+    }
+
+}
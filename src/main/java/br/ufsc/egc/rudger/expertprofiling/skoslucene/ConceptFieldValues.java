@@ -0,0 +1,60 @@
+package br.ufsc.egc.rudger.expertprofiling.skoslucene;
+
+import java.util.Arrays;
+
+/**
+ * The values of some fields of a set of concepts, as read in one pass by
+ * {@link SkosEngine#getFieldValues(int[], String...)}. The concepts are kept sorted by id, so the values of a concept are
+ * found by a binary search and no id is boxed.
+ */
+public class ConceptFieldValues {
+
+    private static final String[] NO_VALUES = new String[0];
+
+    private final int[] conceptIds;
+
+    private final String[] fields;
+
+    /**
+     * The values of the fields of each concept, indexed as the concept ids and the fields
+     */
+    private final String[][][] values;
+
+    ConceptFieldValues(final int[] conceptIds, final String[] fields, final String[][][] values) {
+        this.conceptIds = conceptIds;
+        this.fields = fields;
+        this.values = values;
+    }
+
+    /**
+     * @return the sorted ids of the concepts found
+     */
+    public int[] getConceptIds() {
+        return this.conceptIds.clone();
+    }
+
+    public int size() {
+        return this.conceptIds.length;
+    }
+
+    /**
+     * Returns the values of a field of a concept, empty if the concept was not found or the field was not requested
+     */
+    public String[] get(final int conceptId, final String field) {
+        int concept = Arrays.binarySearch(this.conceptIds, conceptId);
+        int f = Arrays.asList(this.fields).indexOf(field);
+        if (concept < 0 || f < 0) {
+            return NO_VALUES;
+        }
+        return this.values[concept][f];
+    }
+
+    /**
+     * Returns the values of a field of the concept at the given position of {@link #getConceptIds()}
+     */
+    public String[] getAt(final int index, final String field) {
+        int f = Arrays.asList(this.fields).indexOf(field);
+        return f < 0 ? NO_VALUES : this.values[index][f];
+    }
+
+}
@@ -0,0 +1,376 @@
+package br.ufsc.egc.rudger.expertprofiling.skoslucene;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.apache.lucene.codecs.CodecUtil;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.MultiFields;
+import org.apache.lucene.index.PostingsEnum;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.store.IndexOutput;
+import org.apache.lucene.store.RandomAccessInput;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.BytesRef;
+
+/**
+ * The broader, narrower and related edges between the concepts, in compressed sparse row form: for each relation, the
+ * targets of concept i are targets[offsets[i]..offsets[i + 1]). Concepts are referred to by their id, as in the
+ * {@link ConceptDictionary}. The file is memory-mapped, so walking the hierarchy does no search nor allocation besides
+ * the returned arrays.
+ *
+ * The transitive relations hold the stated transitive triples and, when a closure depth is given, the concepts reached
+ * by following the broader or narrower edges up to that depth, so a transitive query is a single lookup too.
+ */
+public class ConceptGraph implements Closeable, LuceneIndexFields {
+
+    /**
+     * The relations stored in the graph, the fields they are read from and, for the transitive ones, the relation they
+     * are the closure of
+     */
+    public enum Relation {
+        BROADER(FIELD_BROADER, null), NARROWER(FIELD_NARROWER, null), RELATED(FIELD_RELATED, null),
+        BROADER_TRANSITIVE(FIELD_BROADER_TRANSITIVE, BROADER), NARROWER_TRANSITIVE(FIELD_NARROWER_TRANSITIVE, NARROWER);
+
+        final String field;
+
+        final Relation closureOf;
+
+        Relation(final String field, final Relation closureOf) {
+            this.field = field;
+            this.closureOf = closureOf;
+        }
+    }
+
+    /**
+     * What was left out or found while writing the graph
+     */
+    static final class WriteStatistics {
+        /**
+         * The edges to resources that are not concepts of the index
+         */
+        long missingEdges;
+        /**
+         * The concepts reaching themselves through the hierarchy, which are left out of their own closures
+         */
+        int cyclicConcepts;
+        /**
+         * The edges of the transitive relations
+         */
+        long transitiveEdges;
+    }
+
+    /**
+     * The edges of a relation, added concept by concept
+     */
+    private static final class EdgeList {
+        final int[] offsets;
+        int[] targets = new int[16];
+        int concept;
+        int end;
+
+        EdgeList(final int size) {
+            this.offsets = new int[size + 1];
+        }
+
+        void add(final int target) throws IOException {
+            if (this.end == this.targets.length) {
+                if (this.end >= MAX_EDGES) {
+                    throw new IOException("Too many edges in the concept graph, lower the transitive closure depth");
+                }
+                this.targets = Arrays.copyOf(this.targets, (int) Math.min((long) this.end * 2, MAX_EDGES));
+            }
+            this.targets[this.end++] = target;
+        }
+
+        /**
+         * Sorts and removes the duplicates of the targets added since the previous concept
+         */
+        void endConcept() {
+            int start = this.offsets[this.concept];
+            Arrays.sort(this.targets, start, this.end);
+            int unique = start;
+            for (int i = start; i < this.end; i++) {
+                if (i == start || this.targets[i] != this.targets[i - 1]) {
+                    this.targets[unique++] = this.targets[i];
+                }
+            }
+            this.end = unique;
+            this.offsets[++this.concept] = this.end;
+        }
+    }
+
+    static final String FILE_NAME = "concepts.graph";
+
+    private static final String CODEC = "ConceptGraph";
+    private static final int VERSION = 1;
+
+    private static final int MAX_EDGES = Integer.MAX_VALUE - 8;
+
+    private static final int[] NO_TARGETS = new int[0];
+
+    private final IndexInput input;
+
+    private final int size;
+
+    private final int transitiveDepth;
+
+    private final RandomAccessInput[] offsets = new RandomAccessInput[Relation.values().length];
+    private final RandomAccessInput[] targets = new RandomAccessInput[Relation.values().length];
+
+    private ConceptGraph(final IndexInput input) throws IOException {
+        this.input = input;
+
+        CodecUtil.retrieveChecksum(input);
+        input.seek(0);
+        CodecUtil.checkHeader(input, CODEC, VERSION, VERSION);
+
+        this.size = input.readInt();
+        this.transitiveDepth = input.readInt();
+        for (Relation relation : Relation.values()) {
+            int edges = input.readInt();
+            long start = input.getFilePointer();
+            long offsetsLength = (this.size + 1L) * Integer.BYTES;
+
+            this.offsets[relation.ordinal()] = input.randomAccessSlice(start, offsetsLength);
+            this.targets[relation.ordinal()] = input.randomAccessSlice(start + offsetsLength, (long) edges * Integer.BYTES);
+            input.seek(start + offsetsLength + (long) edges * Integer.BYTES);
+        }
+    }
+
+    /**
+     * Returns the sorted ids of the concepts the given concept has an edge of the relation to. This method is thread
+     * safe.
+     */
+    public int[] getTargets(final Relation relation, final int conceptId) throws IOException {
+        if (conceptId < 0 || conceptId >= this.size) {
+            return NO_TARGETS;
+        }
+
+        RandomAccessInput relationOffsets = this.offsets[relation.ordinal()];
+        int start = relationOffsets.readInt((long) conceptId * Integer.BYTES);
+        int end = relationOffsets.readInt((long) (conceptId + 1) * Integer.BYTES);
+        if (start == end) {
+            return NO_TARGETS;
+        }
+
+        RandomAccessInput relationTargets = this.targets[relation.ordinal()];
+        int[] result = new int[end - start];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = relationTargets.readInt((long) (start + i) * Integer.BYTES);
+        }
+        return result;
+    }
+
+    /**
+     * @return the number of concept ids, including the ones of deleted concepts
+     */
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * @return the depth the transitive closures were computed to, 0 if only the stated transitive relations are stored
+     */
+    public int getTransitiveDepth() {
+        return this.transitiveDepth;
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.input.close();
+    }
+
+    public static boolean exists(final Directory dir, final long generation) throws IOException {
+        return Arrays.asList(dir.listAll()).contains(DerivedFiles.getFileName(FILE_NAME, generation));
+    }
+
+    public static ConceptGraph open(final Directory dir, final long generation) throws IOException {
+        IndexInput input = dir.openInput(DerivedFiles.getFileName(FILE_NAME, generation), IOContext.READ);
+        boolean success = false;
+        try {
+            ConceptGraph graph = new ConceptGraph(input);
+            success = true;
+            return graph;
+        } finally {
+            if (!success) {
+                input.close();
+            }
+        }
+    }
+
+    /**
+     * Returns the id of the concept with the given URI, or -1 if there is none.
+     */
+    static int getConceptId(final TermsEnum uris, final Bits liveDocs, final String uri) throws IOException {
+        return getConceptId(uris, liveDocs, new BytesRef(uri));
+    }
+
+    private static int getConceptId(final TermsEnum uris, final Bits liveDocs, final BytesRef uri) throws IOException {
+        if (!uris.seekExact(uri)) {
+            return -1;
+        }
+
+        PostingsEnum postings = uris.postings(liveDocs, null, PostingsEnum.NONE);
+        int doc = postings.nextDoc();
+        return doc != DocIdSetIterator.NO_MORE_DOCS ? doc : -1;
+    }
+
+    /**
+     * Writes the edges of the concepts of the index, resolving the URIs indexed in the relation fields to concept ids.
+     * Only the terms and postings are read, so the relations need not be stored. Edges to resources that are not
+     * concepts of the index are left out.
+     *
+     * @param transitiveDepth the number of broader or narrower edges followed to compute the transitive closures, 0 to
+     *            store only the stated transitive relations
+     */
+    static WriteStatistics write(final IndexReader reader, final Directory dir, final long generation, final int transitiveDepth) throws IOException {
+        String fileName = DerivedFiles.getFileName(FILE_NAME, generation);
+        if (exists(dir, generation)) {
+            dir.deleteFile(fileName);
+        }
+
+        Relation[] relations = Relation.values();
+
+        Terms uriTerms = MultiFields.getTerms(reader, FIELD_URI);
+        TermsEnum uris = uriTerms != null ? uriTerms.iterator(null) : null;
+        Bits liveDocs = MultiFields.getLiveDocs(reader);
+
+        int size = reader.maxDoc();
+        EdgeList[] edges = new EdgeList[relations.length];
+        WriteStatistics statistics = new WriteStatistics();
+        for (Relation relation : relations) {
+            edges[relation.ordinal()] = readEdges(reader, relation.field, uris, liveDocs, statistics);
+        }
+
+        if (transitiveDepth > 0) {
+            for (Relation relation : relations) {
+                if (relation.closureOf != null) {
+                    edges[relation.ordinal()] = close(edges[relation.closureOf.ordinal()], edges[relation.ordinal()], transitiveDepth, statistics);
+                }
+            }
+        }
+
+        try (IndexOutput out = dir.createOutput(fileName, IOContext.DEFAULT)) {
+            CodecUtil.writeHeader(out, CODEC, VERSION);
+            out.writeInt(size);
+            out.writeInt(transitiveDepth);
+            for (Relation relation : relations) {
+                EdgeList relationEdges = edges[relation.ordinal()];
+                out.writeInt(relationEdges.end);
+                for (int offset : relationEdges.offsets) {
+                    out.writeInt(offset);
+                }
+                for (int i = 0; i < relationEdges.end; i++) {
+                    out.writeInt(relationEdges.targets[i]);
+                }
+                if (relation.closureOf != null) {
+                    statistics.transitiveEdges += relationEdges.end;
+                }
+            }
+            CodecUtil.writeFooter(out);
+        }
+        return statistics;
+    }
+
+    /**
+     * Reads the edges of a relation field. Each term is the URI of a target and its postings are the sources, so the
+     * edges are gathered as (source, target) pairs packed in longs and sorted by source.
+     */
+    private static EdgeList readEdges(final IndexReader reader, final String field, final TermsEnum uris, final Bits liveDocs,
+            final WriteStatistics statistics) throws IOException {
+        long[] pairs = new long[16];
+        int count = 0;
+
+        Terms terms = MultiFields.getTerms(reader, field);
+        if (terms != null && uris != null) {
+            TermsEnum targets = terms.iterator(null);
+            PostingsEnum sources = null;
+            BytesRef uri;
+            while ((uri = targets.next()) != null) {
+                int target = getConceptId(uris, liveDocs, uri);
+
+                sources = targets.postings(liveDocs, sources, PostingsEnum.NONE);
+                for (int source = sources.nextDoc(); source != DocIdSetIterator.NO_MORE_DOCS; source = sources.nextDoc()) {
+                    if (target < 0) {
+                        statistics.missingEdges++;
+                        continue;
+                    }
+                    if (count == pairs.length) {
+                        if (count >= MAX_EDGES) {
+                            throw new IOException("Too many edges in the concept graph");
+                        }
+                        pairs = Arrays.copyOf(pairs, (int) Math.min((long) count * 2, MAX_EDGES));
+                    }
+                    pairs[count++] = (long) source << 32 | target;
+                }
+            }
+        }
+        Arrays.sort(pairs, 0, count);
+
+        int size = reader.maxDoc();
+        EdgeList edges = new EdgeList(size);
+        int i = 0;
+        for (int source = 0; source < size; source++) {
+            for (; i < count && (int) (pairs[i] >>> 32) == source; i++) {
+                edges.add((int) pairs[i]);
+            }
+            edges.endConcept();
+        }
+        return edges;
+    }
+
+    /**
+     * Computes the closure of the relation up to the given depth, by a breadth first walk from each concept. The walk
+     * marks the concepts it reached, so the cycles of the hierarchy are followed once.
+     */
+    private static EdgeList close(final EdgeList relation, final EdgeList stated, final int depth, final WriteStatistics statistics)
+            throws IOException {
+        int size = relation.offsets.length - 1;
+        EdgeList closure = new EdgeList(size);
+        // the concept the walk reaching each concept started from, plus one
+        int[] reachedFrom = new int[size];
+        int[] queue = new int[size];
+
+        for (int concept = 0; concept < size; concept++) {
+            for (int i = stated.offsets[concept]; i < stated.offsets[concept + 1]; i++) {
+                closure.add(stated.targets[i]);
+            }
+
+            reachedFrom[concept] = concept + 1;
+            boolean cyclic = false;
+            int head = 0;
+            int tail = 0;
+            queue[tail++] = concept;
+            for (int level = 0; level < depth && head < tail; level++) {
+                int levelEnd = tail;
+                while (head < levelEnd) {
+                    int source = queue[head++];
+                    for (int i = relation.offsets[source]; i < relation.offsets[source + 1]; i++) {
+                        int target = relation.targets[i];
+                        if (target == concept) {
+                            cyclic = true;
+                        } else if (reachedFrom[target] != concept + 1) {
+                            reachedFrom[target] = concept + 1;
+                            queue[tail++] = target;
+                            closure.add(target);
+                        }
+                    }
+                }
+            }
+
+            if (cyclic) {
+                statistics.cyclicConcepts++;
+            }
+            closure.endConcept();
+        }
+        return closure;
+    }
+
+}
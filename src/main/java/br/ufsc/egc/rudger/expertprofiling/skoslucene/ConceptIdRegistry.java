@@ -0,0 +1,86 @@
+package br.ufsc.egc.rudger.expertprofiling.skoslucene;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.MultiDocValues;
+import org.apache.lucene.index.MultiFields;
+import org.apache.lucene.index.SortedDocValues;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.Lock;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.BytesRef;
+
+/**
+ * Assigns the concepts the ids stored in the annotations. The document ids of a concept index change whenever it is
+ * rebuilt, updated or merged, so the annotations carry ids of a registry instead: a {@link ConceptDictionary} that is
+ * only ever extended, a concept keeping its id across the rebuilds of any index it is found in.
+ */
+public final class ConceptIdRegistry implements LuceneIndexFields {
+
+    private static final String LOCK_NAME = "write.lock";
+
+    private static final long LOCK_TIMEOUT = 60000;
+
+    private ConceptIdRegistry() {
+    }
+
+    /**
+     * Returns the registry id of each document of a concept index, registering the concepts not known yet. Deleted
+     * documents get -1.
+     *
+     * @param dir the directory of the registry, shared by the indexes whose annotations are stored together
+     */
+    public static int[] assign(final Directory dir, final IndexReader reader) throws IOException {
+        int[] ids = new int[reader.maxDoc()];
+        Arrays.fill(ids, -1);
+
+        // an index may be opened by several annotators at once
+        try (Lock lock = dir.makeLock(LOCK_NAME)) {
+            if (!lock.obtain(LOCK_TIMEOUT)) {
+                throw new IOException("Could not lock the concept id registry in " + dir + ".");
+            }
+
+            int size = 0;
+            Terms uris = MultiFields.getTerms(reader, FIELD_URI);
+            Bits liveDocs = MultiFields.getLiveDocs(reader);
+            if (ConceptDictionary.exists(dir)) {
+                try (ConceptDictionary registry = ConceptDictionary.open(dir)) {
+                    size = registry.size();
+                    TermsEnum urisEnum = uris != null ? uris.iterator(null) : null;
+                    for (int id = 0; urisEnum != null && id < size; id++) {
+                        String uri = registry.getUri(id);
+                        int doc = uri != null ? ConceptGraph.getConceptId(urisEnum, liveDocs, uri) : -1;
+                        if (doc >= 0) {
+                            ids[doc] = id;
+                        }
+                    }
+                }
+            }
+
+            SortedDocValues uriValues = MultiDocValues.getSortedValues(reader, FIELD_URI);
+            List<BytesRef> added = new ArrayList<>();
+            for (int doc = 0; doc < ids.length; doc++) {
+                if (ids[doc] >= 0 || liveDocs != null && !liveDocs.get(doc)) {
+                    continue;
+                }
+                BytesRef uri = ConceptDictionary.readUri(reader, uriValues, doc);
+                if (uri != null && uri.length > 0) {
+                    ids[doc] = size + added.size();
+                    added.add(BytesRef.deepCopyOf(uri));
+                }
+            }
+
+            if (!added.isEmpty()) {
+                ConceptDictionary.append(dir, added);
+            }
+        }
+        return ids;
+    }
+
+}
@@ -0,0 +1,64 @@
+package br.ufsc.egc.rudger.expertprofiling.skoslucene;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Names the files of the structures derived from a commit of the concept index after the generation of the commit, as
+ * Lucene names its segments_N files. A new commit gets new files instead of overwriting the ones still memory-mapped by
+ * the views of an older commit, which some platforms cannot delete or replace while they are open. The files of an
+ * older commit are deleted once no view uses them.
+ */
+final class DerivedFiles {
+
+    /**
+     * Returned by {@link #getGeneration(String)} for the files that are not derived structures
+     */
+    static final long NOT_DERIVED = -2;
+
+    /**
+     * The generation of the files written before they were named after a commit
+     */
+    static final long UNVERSIONED = -1;
+
+    private static final List<String> FILE_NAMES = Arrays.asList(LabelLengthIndex.FILE_NAME, LabelDictionary.FST_FILE_NAME,
+            LabelDictionary.OFFSETS_FILE_NAME, LabelDictionary.CONCEPTS_FILE_NAME, ConceptDictionary.OFFSETS_FILE_NAME,
+            ConceptDictionary.URIS_FILE_NAME, ConceptGraph.FILE_NAME, LabelBloomFilter.FILE_NAME);
+
+    private DerivedFiles() {
+    }
+
+    /**
+     * Returns the name of a derived file of the given commit generation: "labels.fst" becomes "labels_2a.fst" for the
+     * generation 82, written in base 36 as Lucene does.
+     */
+    static String getFileName(final String fileName, final long generation) {
+        int dot = fileName.lastIndexOf('.');
+        return fileName.substring(0, dot) + "_" + Long.toString(generation, Character.MAX_RADIX) + fileName.substring(dot);
+    }
+
+    /**
+     * Returns the commit generation of a derived file, {@link #UNVERSIONED} for one with a fixed name or
+     * {@link #NOT_DERIVED} for the other files of the directory.
+     */
+    static long getGeneration(final String file) {
+        for (String fileName : FILE_NAMES) {
+            if (file.equals(fileName)) {
+                return UNVERSIONED;
+            }
+
+            int dot = fileName.lastIndexOf('.');
+            String prefix = fileName.substring(0, dot) + "_";
+            String extension = fileName.substring(dot);
+            if (file.length() > prefix.length() + extension.length() && file.startsWith(prefix) && file.endsWith(extension)) {
+                try {
+                    return Long.parseLong(file.substring(prefix.length(), file.length() - extension.length()), Character.MAX_RADIX);
+                } catch (NumberFormatException e) {
+                    // another file with the same prefix
+                }
+            }
+        }
+        return NOT_DERIVED;
+    }
+
+}
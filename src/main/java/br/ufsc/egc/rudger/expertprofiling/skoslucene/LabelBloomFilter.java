@@ -0,0 +1,178 @@
+package br.ufsc.egc.rudger.expertprofiling.skoslucene;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.apache.lucene.codecs.CodecUtil;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.MultiFields;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.store.ChecksumIndexInput;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexOutput;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.StringHelper;
+
+/**
+ * Bloom filter of the normalized labels. A negative answer means that no concept has the label, so the lookup can be
+ * skipped. A positive answer may be wrong with the false positive probability the filter was sized for.
+ */
+class LabelBloomFilter {
+
+    static final String FILE_NAME = "labels.blm";
+
+    static final double DEFAULT_FALSE_POSITIVE_PROBABILITY = 0.01;
+
+    private static final String CODEC = "LabelBloomFilter";
+    private static final int VERSION = 0;
+
+    private static final int SEED1 = 0x9747b28c;
+    private static final int SEED2 = 0x5bd1e995;
+
+    private final long[] bits;
+    private final long numBits;
+    private final int numHashes;
+    private final double falsePositiveProbability;
+
+    private LabelBloomFilter(final long[] bits, final long numBits, final int numHashes, final double falsePositiveProbability) {
+        this.bits = bits;
+        this.numBits = numBits;
+        this.numHashes = numHashes;
+        this.falsePositiveProbability = falsePositiveProbability;
+    }
+
+    private LabelBloomFilter(final long expectedLabels, final double falsePositiveProbability) {
+        long n = Math.max(1, expectedLabels);
+        long m = (long) Math.ceil(-n * Math.log(falsePositiveProbability) / (Math.log(2) * Math.log(2)));
+        m = Math.max(64, Math.min(m, (long) Integer.MAX_VALUE * Long.SIZE));
+
+        this.numBits = m;
+        this.numHashes = Math.max(1, (int) Math.round((double) m / n * Math.log(2)));
+        this.bits = new long[(int) ((m + Long.SIZE - 1) / Long.SIZE)];
+        this.falsePositiveProbability = falsePositiveProbability;
+    }
+
+    /**
+     * Returns false if the label is certainly not in the dictionary. This method is thread safe.
+     */
+    boolean mightContain(final BytesRef label) {
+        int h1 = StringHelper.murmurhash3_x86_32(label, SEED1);
+        int h2 = StringHelper.murmurhash3_x86_32(label, SEED2);
+
+        for (int i = 0; i < this.numHashes; i++) {
+            long bit = ((h1 + (long) i * h2) & Long.MAX_VALUE) % this.numBits;
+            if ((this.bits[(int) (bit >>> 6)] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void add(final BytesRef label) {
+        int h1 = StringHelper.murmurhash3_x86_32(label, SEED1);
+        int h2 = StringHelper.murmurhash3_x86_32(label, SEED2);
+
+        for (int i = 0; i < this.numHashes; i++) {
+            long bit = ((h1 + (long) i * h2) & Long.MAX_VALUE) % this.numBits;
+            this.bits[(int) (bit >>> 6)] |= 1L << bit;
+        }
+    }
+
+    double getFalsePositiveProbability() {
+        return this.falsePositiveProbability;
+    }
+
+    long getNumBits() {
+        return this.numBits;
+    }
+
+    int getNumHashes() {
+        return this.numHashes;
+    }
+
+    /**
+     * Builds the filter with the terms of the given label fields, sized for the total number of terms.
+     */
+    static LabelBloomFilter build(final IndexReader reader, final double falsePositiveProbability, final String... fields) throws IOException {
+        long expectedLabels = 0;
+        for (String field : fields) {
+            Terms terms = MultiFields.getTerms(reader, field);
+            if (terms == null) {
+                continue;
+            }
+            long size = terms.size();
+            if (size < 0) {
+                // the terms of an index with several segments, as left by the updates, are not counted in advance
+                size = 0;
+                TermsEnum termsEnum = terms.iterator(null);
+                while (termsEnum.next() != null) {
+                    size++;
+                }
+            }
+            expectedLabels += size;
+        }
+
+        LabelBloomFilter filter = new LabelBloomFilter(expectedLabels, falsePositiveProbability);
+
+        for (String field : fields) {
+            Terms terms = MultiFields.getTerms(reader, field);
+            if (terms == null) {
+                continue;
+            }
+
+            TermsEnum termsEnum = terms.iterator(null);
+            BytesRef term;
+            while ((term = termsEnum.next()) != null) {
+                filter.add(term);
+            }
+        }
+
+        return filter;
+    }
+
+    static boolean exists(final Directory dir, final long generation) throws IOException {
+        return Arrays.asList(dir.listAll()).contains(DerivedFiles.getFileName(FILE_NAME, generation));
+    }
+
+    static LabelBloomFilter read(final Directory dir, final long generation) throws IOException {
+        try (ChecksumIndexInput in = dir.openChecksumInput(DerivedFiles.getFileName(FILE_NAME, generation), IOContext.READONCE)) {
+            CodecUtil.checkHeader(in, CODEC, VERSION, VERSION);
+
+            double falsePositiveProbability = Double.longBitsToDouble(in.readLong());
+            long numBits = in.readVLong();
+            int numHashes = in.readVInt();
+            long[] bits = new long[in.readVInt()];
+            for (int i = 0; i < bits.length; i++) {
+                bits[i] = in.readLong();
+            }
+
+            CodecUtil.checkFooter(in);
+
+            return new LabelBloomFilter(bits, numBits, numHashes, falsePositiveProbability);
+        }
+    }
+
+    void write(final Directory dir, final long generation) throws IOException {
+        String fileName = DerivedFiles.getFileName(FILE_NAME, generation);
+        if (exists(dir, generation)) {
+            dir.deleteFile(fileName);
+        }
+
+        try (IndexOutput out = dir.createOutput(fileName, IOContext.DEFAULT)) {
+            CodecUtil.writeHeader(out, CODEC, VERSION);
+
+            out.writeLong(Double.doubleToLongBits(this.falsePositiveProbability));
+            out.writeVLong(this.numBits);
+            out.writeVInt(this.numHashes);
+            out.writeVInt(this.bits.length);
+            for (long word : this.bits) {
+                out.writeLong(word);
+            }
+
+            CodecUtil.writeFooter(out);
+        }
+    }
+
+}
@@ -0,0 +1,253 @@
+package br.ufsc.egc.rudger.expertprofiling.skoslucene;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.lucene.codecs.CodecUtil;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.MultiFields;
+import org.apache.lucene.index.PostingsEnum;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.store.IndexOutput;
+import org.apache.lucene.store.RandomAccessInput;
+import org.apache.lucene.util.ArrayUtil;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.IOUtils;
+import org.apache.lucene.util.IntsRefBuilder;
+import org.apache.lucene.util.fst.Builder;
+import org.apache.lucene.util.fst.BytesRefFSTEnum;
+import org.apache.lucene.util.fst.BytesRefFSTEnum.InputOutput;
+import org.apache.lucene.util.fst.FST;
+import org.apache.lucene.util.fst.PositiveIntOutputs;
+import org.apache.lucene.util.fst.Util;
+
+/**
+ * Exact match dictionary of the normalized labels. A FST maps each label to its ordinal and the ordinal points to the
+ * sorted list of concept ordinals (the document ids of the concept index) having that label as preferred, alternative
+ * or hidden label. The concept lists are memory-mapped, so only the FST itself is kept on the heap.
+ */
+class LabelDictionary implements Closeable {
+
+    static final String FST_FILE_NAME = "labels.fst";
+    static final String OFFSETS_FILE_NAME = "labels.off";
+    static final String CONCEPTS_FILE_NAME = "labels.cpt";
+
+    private static final String FST_CODEC = "LabelDictionaryFst";
+    private static final String OFFSETS_CODEC = "LabelDictionaryOffsets";
+    private static final String CONCEPTS_CODEC = "LabelDictionaryConcepts";
+    private static final int VERSION = 0;
+
+    private static final int[] NO_CONCEPTS = new int[0];
+
+    private final FST<Long> fst;
+
+    private final IndexInput offsetsInput;
+    private final IndexInput conceptsInput;
+
+    private final RandomAccessInput offsets;
+    private final RandomAccessInput concepts;
+
+    private LabelDictionary(final FST<Long> fst, final IndexInput offsetsInput, final IndexInput conceptsInput) throws IOException {
+        this.fst = fst;
+        this.offsetsInput = offsetsInput;
+        this.conceptsInput = conceptsInput;
+        this.offsets = slice(offsetsInput, OFFSETS_CODEC);
+        this.concepts = slice(conceptsInput, CONCEPTS_CODEC);
+    }
+
+    /**
+     * Returns the sorted concept ordinals of the given normalized label. This method is thread safe.
+     */
+    int[] getConcepts(final BytesRef label) throws IOException {
+        Long ord = this.fst != null ? Util.get(this.fst, label) : null;
+        return ord != null ? this.readConcepts(ord) : NO_CONCEPTS;
+    }
+
+    /**
+     * Returns the sorted concept ordinals of each of the given normalized labels, which must be sorted. A single
+     * enumeration walks the FST, so the arcs of the prefixes shared by consecutive labels are not read again. This
+     * method is thread safe.
+     */
+    int[][] getConcepts(final BytesRef[] sortedLabels) throws IOException {
+        int[][] result = new int[sortedLabels.length][];
+        BytesRefFSTEnum<Long> fstEnum = this.fst != null ? new BytesRefFSTEnum<>(this.fst) : null;
+
+        for (int i = 0; i < sortedLabels.length; i++) {
+            InputOutput<Long> entry = fstEnum != null ? fstEnum.seekExact(sortedLabels[i]) : null;
+            result[i] = entry != null ? this.readConcepts(entry.output) : NO_CONCEPTS;
+        }
+        return result;
+    }
+
+    private int[] readConcepts(final long ord) throws IOException {
+        int start = this.offsets.readInt(ord * Integer.BYTES);
+        int end = this.offsets.readInt((ord + 1) * Integer.BYTES);
+
+        int[] result = new int[end - start];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = this.concepts.readInt((long) (start + i) * Integer.BYTES);
+        }
+        return result;
+    }
+
+    long ramBytesUsed() {
+        return this.fst != null ? this.fst.ramBytesUsed() : 0;
+    }
+
+    @Override
+    public void close() throws IOException {
+        IOUtils.close(this.offsetsInput, this.conceptsInput);
+    }
+
+    static boolean exists(final Directory dir, final long generation) throws IOException {
+        return Arrays.asList(dir.listAll()).containsAll(getFileNames(generation));
+    }
+
+    static LabelDictionary open(final Directory dir, final long generation) throws IOException {
+        FST<Long> fst;
+        try (IndexInput in = dir.openInput(DerivedFiles.getFileName(FST_FILE_NAME, generation), IOContext.READONCE)) {
+            CodecUtil.checkHeader(in, FST_CODEC, VERSION, VERSION);
+            fst = in.readByte() == 1 ? new FST<>(in, PositiveIntOutputs.getSingleton()) : null;
+        }
+
+        IndexInput offsetsInput = null;
+        IndexInput conceptsInput = null;
+        boolean success = false;
+        try {
+            offsetsInput = dir.openInput(DerivedFiles.getFileName(OFFSETS_FILE_NAME, generation), IOContext.READ);
+            conceptsInput = dir.openInput(DerivedFiles.getFileName(CONCEPTS_FILE_NAME, generation), IOContext.READ);
+            LabelDictionary dictionary = new LabelDictionary(fst, offsetsInput, conceptsInput);
+            success = true;
+            return dictionary;
+        } finally {
+            if (!success) {
+                IOUtils.closeWhileHandlingException(offsetsInput, conceptsInput);
+            }
+        }
+    }
+
+    /**
+     * Writes the dictionary of the terms of the given label fields. The terms of all fields are merged in sorted order,
+     * as required by the FST builder.
+     */
+    static void write(final IndexReader reader, final Directory dir, final long generation, final String... fields) throws IOException {
+        for (String fileName : getFileNames(generation)) {
+            if (Arrays.asList(dir.listAll()).contains(fileName)) {
+                dir.deleteFile(fileName);
+            }
+        }
+
+        List<TermsEnum> termsEnums = new ArrayList<>();
+        for (String field : fields) {
+            Terms terms = MultiFields.getTerms(reader, field);
+            if (terms != null) {
+                termsEnums.add(terms.iterator(null));
+            }
+        }
+
+        BytesRef[] currentTerms = new BytesRef[termsEnums.size()];
+        for (int i = 0; i < currentTerms.length; i++) {
+            currentTerms[i] = termsEnums.get(i).next();
+        }
+
+        Builder<Long> builder = new Builder<>(FST.INPUT_TYPE.BYTE1, PositiveIntOutputs.getSingleton());
+        IntsRefBuilder scratchInts = new IntsRefBuilder();
+        PostingsEnum postings = null;
+        int[] docs = new int[16];
+
+        try (IndexOutput offsetsOut = dir.createOutput(DerivedFiles.getFileName(OFFSETS_FILE_NAME, generation), IOContext.DEFAULT);
+                IndexOutput conceptsOut = dir.createOutput(DerivedFiles.getFileName(CONCEPTS_FILE_NAME, generation), IOContext.DEFAULT)) {
+            CodecUtil.writeHeader(offsetsOut, OFFSETS_CODEC, VERSION);
+            CodecUtil.writeHeader(conceptsOut, CONCEPTS_CODEC, VERSION);
+
+            long ord = 0;
+            int written = 0;
+
+            while (true) {
+                BytesRef label = null;
+                for (BytesRef term : currentTerms) {
+                    if (term != null && (label == null || term.compareTo(label) < 0)) {
+                        label = term;
+                    }
+                }
+
+                if (label == null) {
+                    break;
+                }
+
+                label = BytesRef.deepCopyOf(label);
+
+                // collect the concepts of the label in every field and advance the enums positioned on it
+                int size = 0;
+                for (int i = 0; i < currentTerms.length; i++) {
+                    if (currentTerms[i] != null && currentTerms[i].bytesEquals(label)) {
+                        postings = termsEnums.get(i).postings(MultiFields.getLiveDocs(reader), postings, PostingsEnum.NONE);
+                        int doc;
+                        while ((doc = postings.nextDoc()) != DocIdSetIterator.NO_MORE_DOCS) {
+                            docs = ArrayUtil.grow(docs, size + 1);
+                            docs[size++] = doc;
+                        }
+                        currentTerms[i] = termsEnums.get(i).next();
+                    }
+                }
+
+                if (size == 0) {
+                    continue;
+                }
+
+                Arrays.sort(docs, 0, size);
+
+                offsetsOut.writeInt(written);
+                int previous = -1;
+                for (int i = 0; i < size; i++) {
+                    if (docs[i] != previous) {
+                        conceptsOut.writeInt(docs[i]);
+                        previous = docs[i];
+                        written++;
+                    }
+                }
+
+                builder.add(Util.toIntsRef(label, scratchInts), ord++);
+            }
+
+            offsetsOut.writeInt(written);
+
+            CodecUtil.writeFooter(offsetsOut);
+            CodecUtil.writeFooter(conceptsOut);
+        }
+
+        FST<Long> fst = builder.finish();
+        try (IndexOutput fstOut = dir.createOutput(DerivedFiles.getFileName(FST_FILE_NAME, generation), IOContext.DEFAULT)) {
+            CodecUtil.writeHeader(fstOut, FST_CODEC, VERSION);
+            // the builder returns no FST when there are no labels at all
+            fstOut.writeByte((byte) (fst != null ? 1 : 0));
+            if (fst != null) {
+                fst.save(fstOut);
+            }
+            CodecUtil.writeFooter(fstOut);
+        }
+    }
+
+    private static List<String> getFileNames(final long generation) {
+        return Arrays.asList(DerivedFiles.getFileName(FST_FILE_NAME, generation), DerivedFiles.getFileName(OFFSETS_FILE_NAME, generation),
+                DerivedFiles.getFileName(CONCEPTS_FILE_NAME, generation));
+    }
+
+    private static RandomAccessInput slice(final IndexInput in, final String codec) throws IOException {
+        CodecUtil.retrieveChecksum(in);
+
+        long start = CodecUtil.headerLength(codec);
+        long length = in.length() - start - CodecUtil.footerLength();
+
+        return in.randomAccessSlice(start, length);
+    }
+
+}
@@ -0,0 +1,149 @@
+package br.ufsc.egc.rudger.expertprofiling.skoslucene;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.lucene.codecs.CodecUtil;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.MultiFields;
+import org.apache.lucene.index.PostingsEnum;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.store.ChecksumIndexInput;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexOutput;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.BytesRef;
+
+/**
+ * Maps the first token of every normalized label to the number of tokens of the longest label starting with it. The
+ * annotator uses it to probe only the n-gram windows that can possibly match a label.
+ */
+class LabelLengthIndex {
+
+    static final String FILE_NAME = "label_lengths.idx";
+
+    private static final String CODEC = "LabelLengthIndex";
+    private static final int VERSION = 0;
+
+    private final Map<String, Integer> lengths;
+
+    private final int maxTokens;
+
+    private LabelLengthIndex(final Map<String, Integer> lengths) {
+        this.lengths = lengths;
+        this.maxTokens = lengths.values().stream().mapToInt(Integer::intValue).max().orElse(0);
+    }
+
+    /**
+     * Returns the number of tokens of the longest label starting with the given token, or 0 if there is none.
+     */
+    int getMaxTokens(final String firstToken) {
+        Integer length = this.lengths.get(firstToken);
+        return length != null ? length : 0;
+    }
+
+    /**
+     * Returns the number of tokens of the longest label, or 0 if there is none.
+     */
+    int getMaxTokens() {
+        return this.maxTokens;
+    }
+
+    int size() {
+        return this.lengths.size();
+    }
+
+    /**
+     * Builds the index from the terms of the given label fields. Tokens are the space separated words of each term.
+     * The terms left by deleted documents until their segments are merged are skipped, so the labels of the concepts
+     * deleted by an update do not count.
+     */
+    static LabelLengthIndex build(final IndexReader reader, final String... fields) throws IOException {
+        Map<String, Integer> lengths = new HashMap<>();
+        Bits liveDocs = MultiFields.getLiveDocs(reader);
+        PostingsEnum postings = null;
+
+        for (String field : fields) {
+            Terms terms = MultiFields.getTerms(reader, field);
+            if (terms == null) {
+                continue;
+            }
+
+            TermsEnum termsEnum = terms.iterator(null);
+            BytesRef term;
+            while ((term = termsEnum.next()) != null) {
+                if (liveDocs != null) {
+                    postings = termsEnum.postings(liveDocs, postings, PostingsEnum.NONE);
+                    if (postings.nextDoc() == DocIdSetIterator.NO_MORE_DOCS) {
+                        continue;
+                    }
+                }
+
+                int firstSpace = -1;
+                int tokens = 1;
+                for (int i = term.offset; i < term.offset + term.length; i++) {
+                    if (term.bytes[i] == ' ') {
+                        if (firstSpace < 0) {
+                            firstSpace = i;
+                        }
+                        tokens++;
+                    }
+                }
+
+                int firstTokenLength = firstSpace < 0 ? term.length : firstSpace - term.offset;
+                String firstToken = new String(term.bytes, term.offset, firstTokenLength, StandardCharsets.UTF_8);
+
+                lengths.merge(firstToken, tokens, Math::max);
+            }
+        }
+
+        return new LabelLengthIndex(lengths);
+    }
+
+    static boolean exists(final Directory dir, final long generation) throws IOException {
+        return Arrays.asList(dir.listAll()).contains(DerivedFiles.getFileName(FILE_NAME, generation));
+    }
+
+    static LabelLengthIndex read(final Directory dir, final long generation) throws IOException {
+        try (ChecksumIndexInput in = dir.openChecksumInput(DerivedFiles.getFileName(FILE_NAME, generation), IOContext.READONCE)) {
+            CodecUtil.checkHeader(in, CODEC, VERSION, VERSION);
+
+            int size = in.readVInt();
+            Map<String, Integer> lengths = new HashMap<>(size * 4 / 3 + 1);
+            for (int i = 0; i < size; i++) {
+                String firstToken = in.readString();
+                lengths.put(firstToken, in.readVInt());
+            }
+
+            CodecUtil.checkFooter(in);
+
+            return new LabelLengthIndex(lengths);
+        }
+    }
+
+    void write(final Directory dir, final long generation) throws IOException {
+        String fileName = DerivedFiles.getFileName(FILE_NAME, generation);
+        if (exists(dir, generation)) {
+            dir.deleteFile(fileName);
+        }
+
+        try (IndexOutput out = dir.createOutput(fileName, IOContext.DEFAULT)) {
+            CodecUtil.writeHeader(out, CODEC, VERSION);
+
+            out.writeVInt(this.lengths.size());
+            for (Map.Entry<String, Integer> entry : this.lengths.entrySet()) {
+                out.writeString(entry.getKey());
+                out.writeVInt(entry.getValue());
+            }
+
+            CodecUtil.writeFooter(out);
+        }
+    }
+
+}
@@ -16,4 +16,6 @@ public interface LuceneIndexFields {
     String FIELD_ALT_LABEL_NORM = "alt_norm";
     String FIELD_HIDDEN_LABEL_NORM = "hidden_norm";
 
+    String FIELD_FINGERPRINT = "fingerprint";
+
 }
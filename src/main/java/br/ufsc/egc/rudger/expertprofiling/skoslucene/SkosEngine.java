@@ -1,13 +1,25 @@
 package br.ufsc.egc.rudger.expertprofiling.skoslucene;
 
+import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+import br.ufsc.egc.rudger.expertprofiling.concurrent.LruCache;
 
 /**
- * An interface to the used SKOS model. It provides accessors to all the data needed for the expansion process.
+ * An interface to the used SKOS model. It provides accessors to all the data needed for the expansion process. The
+ * accessors can be called concurrently, also while the index is swapped by {@link #createSearch()} or
+ * {@link #refresh()}.
+ *
+ * The hierarchy accessors returning concept ids only return the concepts of the index, as the resources that are not
+ * concepts have no id. The ones returning URIs also return the stated targets that are not concepts of the index, when
+ * the relations are stored.
  */
-public interface SkosEngine {
+public interface SkosEngine extends Closeable {
 
     /**
      * This constructor loads the SKOS model from a given InputStream using the given serialization language parameter,
@@ -19,8 +31,65 @@ public interface SkosEngine {
      */
     void indexModel(InputStream inputStream, String format) throws IOException;
 
+    /**
+     * Loads several SKOS models at once. Each model is read and indexed by its own thread into a partial index, then
+     * the partial indexes are merged into the concept index.
+     *
+     * @param inputs opens the input stream of each model, called by its indexing thread
+     * @param format the serialization language
+     * @throws IOException if a model cannot be loaded
+     */
+    void indexModels(List<Callable<InputStream>> inputs, String format) throws IOException;
+
+    /**
+     * Applies newer versions of the SKOS models to the index. The inputs are all the models of the index, not deltas,
+     * as the lookup layout does not keep the statements a delta would be merged with. Only the concepts whose
+     * statements changed are rewritten, the concepts missing from the inputs are deleted, then the derived structures
+     * are rebuilt from the index. The new version is searched after {@link #refresh()}.
+     *
+     * @param inputs opens the input stream of each model
+     * @param format the serialization language
+     * @throws IOException if a model cannot be loaded
+     */
+    void updateModels(List<Callable<InputStream>> inputs, String format) throws IOException;
+
+    /**
+     * Opens the index for searching, building its missing structures. When it was already open, the new view replaces
+     * the current one atomically and the previous view is closed once the lookups using it are done.
+     *
+     * @throws IOException if the index cannot be opened
+     */
     void createSearch() throws IOException;
 
+    /**
+     * Swaps in the current version of the index if it changed since it was opened, as {@link #createSearch()} does.
+     *
+     * @throws IOException if the index cannot be reopened
+     */
+    void refresh() throws IOException;
+
+    /**
+     * Enables the caches of the label and concept field lookups. The caches are shared by all threads. Each view of the
+     * index opened by {@link #createSearch()} or {@link #refresh()} gets its own, since the concept ids may change.
+     *
+     * @param maxValues the maximum number of values (concept ids, URIs or labels) of each cache, or 0 to disable them
+     */
+    void setCacheSize(long maxValues);
+
+    /**
+     * Returns the cache of the concept ids of the labels, which exposes the hit rate, eviction count and load time
+     *
+     * @return LruCache the cache, or null if it is disabled
+     */
+    LruCache<String, int[]> getLabelCache();
+
+    /**
+     * Returns the cache of the field values of the concepts
+     *
+     * @return LruCache the cache, or null if it is disabled
+     */
+    LruCache<String, Collection<String>> getFieldCache();
+
     /**
      * Returns the preferred labels (prefLabel) for a given concept URI
      *
@@ -84,6 +153,33 @@ public interface SkosEngine {
      */
     Collection<String> getNarrowerConcepts(String conceptURI) throws IOException;
 
+    /**
+     * Returns the ids of the related concepts of a concept id
+     *
+     * @param conceptId the concept id
+     * @return int[] the sorted related concept ids
+     * @throws IOException if method fails
+     */
+    int[] getRelatedConceptIds(int conceptId) throws IOException;
+
+    /**
+     * Returns the ids of the broader concepts of a concept id
+     *
+     * @param conceptId the concept id
+     * @return int[] the sorted broader concept ids
+     * @throws IOException if method fails
+     */
+    int[] getBroaderConceptIds(int conceptId) throws IOException;
+
+    /**
+     * Returns the ids of the narrower concepts of a concept id
+     *
+     * @param conceptId the concept id
+     * @return int[] the sorted narrower concept ids
+     * @throws IOException if method fails
+     */
+    int[] getNarrowerConceptIds(int conceptId) throws IOException;
+
     /**
      * Returns the labels (prefLabel + altLabel) of ALL broader concepts for a given concept URI
      *
@@ -120,6 +216,24 @@ public interface SkosEngine {
      */
     Collection<String> getNarrowerTransitiveConcepts(String conceptURI) throws IOException;
 
+    /**
+     * Returns the ids of the broader transitive concepts of a concept id
+     *
+     * @param conceptId the concept id
+     * @return int[] the sorted broader transitive concept ids
+     * @throws IOException if method fails
+     */
+    int[] getBroaderTransitiveConceptIds(int conceptId) throws IOException;
+
+    /**
+     * Returns the ids of the narrower transitive concepts of a concept id
+     *
+     * @param conceptId the concept id
+     * @return int[] the sorted narrower transitive concept ids
+     * @throws IOException if method fails
+     */
+    int[] getNarrowerTransitiveConceptIds(int conceptId) throws IOException;
+
     /**
      * Returns the labels (prefLabel + altLabel) of ALL broader transitive concepts for a given concept URI
      *
@@ -147,6 +261,71 @@ public interface SkosEngine {
      */
     Collection<String> getConcepts(String label, boolean normalize) throws IOException;
 
+    /**
+     * Returns the ids of the concepts matching each of the given normalized labels. The labels are resolved together in
+     * sorted order, which is much cheaper than one {@link #getConcepts(String, boolean)} call per label.
+     *
+     * @param labels the normalized labels
+     * @return Map<String, int[]> the sorted concept ids of the labels matching at least one concept
+     * @throws IOException if method fails
+     */
+    Map<String, int[]> getConceptIds(Collection<String> labels) throws IOException;
+
+    /**
+     * Returns the URI of a concept id
+     *
+     * @param conceptId the concept id
+     * @return String the concept URI, or null if the id is unknown
+     * @throws IOException if method fails
+     */
+    String getConceptUri(int conceptId) throws IOException;
+
+    /**
+     * Returns the id of a concept URI
+     *
+     * @param conceptURI the concept URI
+     * @return int the concept id, or -1 if the concept is unknown
+     * @throws IOException if method fails
+     */
+    int getConceptId(String conceptURI) throws IOException;
+
+    /**
+     * Returns the values of the given fields of the concept ids, reading each concept once in id order. This is much
+     * cheaper than one field lookup per concept and field.
+     *
+     * @param conceptIds the concept ids, in any order and possibly repeated
+     * @param fields the fields to read, as in {@link LuceneIndexFields}
+     * @return ConceptFieldValues the values of the concepts found
+     * @throws IOException if method fails
+     */
+    ConceptFieldValues getFieldValues(int[] conceptIds, String... fields) throws IOException;
+
+    /**
+     * Returns the values of the given fields of the concept URIs, reading each concept once in id order. Unknown
+     * concepts are left out.
+     *
+     * @param conceptURIs the concept URIs
+     * @param fields the fields to read, as in {@link LuceneIndexFields}
+     * @return ConceptFieldValues the values of the concepts found
+     * @throws IOException if method fails
+     */
+    ConceptFieldValues getFieldValues(Collection<String> conceptURIs, String... fields) throws IOException;
+
+    /**
+     * Returns the number of tokens of the longest normalized label starting with the given token
+     *
+     * @param firstToken the normalized first token of a label
+     * @return int the number of tokens, or 0 if no label starts with the token
+     */
+    int getMaxLabelTokens(String firstToken);
+
+    /**
+     * Returns the number of tokens of the longest normalized label
+     *
+     * @return int the number of tokens, or 0 if there are no labels
+     */
+    int getMaxLabelTokens();
+
     /**
      * Returns all alternative terms for a given label
      *
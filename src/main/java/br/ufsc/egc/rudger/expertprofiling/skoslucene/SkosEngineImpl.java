@@ -1,71 +1,149 @@
 package br.ufsc.egc.rudger.expertprofiling.skoslucene;
 
+import java.io.BufferedReader;
 import java.io.File;
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
+import org.apache.commons.io.FileUtils;
+import org.apache.jena.riot.Lang;
+import org.apache.jena.riot.RDFDataMgr;
+import org.apache.jena.riot.system.StreamRDFBase;
 import org.apache.lucene.analysis.standard.StandardAnalyzer;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.document.Field;
+import org.apache.lucene.document.FieldType;
+import org.apache.lucene.document.NumericDocValuesField;
+import org.apache.lucene.document.SortedDocValuesField;
 import org.apache.lucene.document.StringField;
 import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.IndexWriterConfig;
 import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.MultiDocValues;
+import org.apache.lucene.index.MultiFields;
+import org.apache.lucene.index.NumericDocValues;
+import org.apache.lucene.index.PostingsEnum;
+import org.apache.lucene.index.SegmentInfos;
 import org.apache.lucene.index.Term;
-import org.apache.lucene.search.BooleanClause.Occur;
-import org.apache.lucene.search.BooleanQuery;
-import org.apache.lucene.search.IndexSearcher;
-import org.apache.lucene.search.Query;
-import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.search.DocIdSetIterator;
 import org.apache.lucene.search.Scorer;
 import org.apache.lucene.search.SimpleCollector;
-import org.apache.lucene.search.TermQuery;
-import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.store.AlreadyClosedException;
 import org.apache.lucene.store.Directory;
 import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.FixedBitSet;
+import org.apache.lucene.util.IOUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.hp.hpl.jena.ontology.AnnotationProperty;
-import com.hp.hpl.jena.ontology.ObjectProperty;
-import com.hp.hpl.jena.rdf.model.Literal;
-import com.hp.hpl.jena.rdf.model.Model;
-import com.hp.hpl.jena.rdf.model.ModelFactory;
-import com.hp.hpl.jena.rdf.model.RDFNode;
-import com.hp.hpl.jena.rdf.model.ResIterator;
-import com.hp.hpl.jena.rdf.model.Resource;
-import com.hp.hpl.jena.rdf.model.StmtIterator;
-import com.hp.hpl.jena.update.GraphStore;
-import com.hp.hpl.jena.update.GraphStoreFactory;
-import com.hp.hpl.jena.update.UpdateAction;
-import com.hp.hpl.jena.update.UpdateFactory;
-import com.hp.hpl.jena.update.UpdateRequest;
+import com.hp.hpl.jena.graph.Node;
+import com.hp.hpl.jena.graph.Triple;
 import com.hp.hpl.jena.vocabulary.RDF;
 
+import br.ufsc.egc.rudger.expertprofiling.concurrent.LruCache;
+import br.ufsc.egc.rudger.expertprofiling.concurrent.ServiceThreadExecutor;
 import br.ufsc.egc.rudger.expertprofiling.normalizer.Normalizer;
 
 /**
  * SKOSEngine Implementation for Lucene. Each SKOS concept is stored/indexed as a Lucene document. All labels are
  * normalized.
+ *
+ * The lookups are thread safe. Each one acquires the current view of the index and its derived structures and releases
+ * it when done, so {@link #createSearch()} and {@link #refresh()} can swap in a rebuilt or updated index while other
+ * threads keep looking up concepts. The concept ids are those of the view, so ids kept across a swap may refer to other
+ * concepts, while the ids of {@link #getRegisteredConceptIds(Collection)} are kept.
  */
 public class SkosEngineImpl implements SkosEngine, LuceneIndexFields {
 
     private static final Logger logger = LoggerFactory.getLogger(SkosEngineImpl.class);
 
     /**
-     * Records the total number of matches
+     * What the concept index keeps of each concept
+     */
+    public enum IndexLayout {
+        /**
+         * All the labels and relations are indexed and stored, so every accessor answers
+         */
+        FULL,
+        /**
+         * Only what the label lookups and the concept graph are built from: the normalized labels, the relations and
+         * the URI are indexed but not stored, the URI being also kept as doc values. The label accessors return no
+         * labels, while the concept lookups and the hierarchy answer as with the full layout, except for the stated
+         * targets of the relations that are not concepts of the index, which are not returned.
+         */
+        LOOKUP
+    }
+
+    private static final String[] LABEL_NORM_FIELDS = {FIELD_PREF_LABEL_NORM, FIELD_ALT_LABEL_NORM, FIELD_HIDDEN_LABEL_NORM};
+
+    /**
+     * The SKOS properties kept when indexing and the fields storing them, in the order of the statement property codes
+     */
+    //@formatter:off
+    private static final String[] PROPERTY_URIS = {
+            Skos.prefLabel.getURI(), Skos.altLabel.getURI(), Skos.hiddenLabel.getURI(),
+            Skos.broader.getURI(), Skos.broaderTransitive.getURI(), Skos.narrower.getURI(), Skos.narrowerTransitive.getURI(), Skos.related.getURI() };
+    private static final String[] PROPERTY_FIELDS = {
+            FIELD_PREF_LABEL, FIELD_ALT_LABEL, FIELD_HIDDEN_LABEL,
+            FIELD_BROADER, FIELD_BROADER_TRANSITIVE, FIELD_NARROWER, FIELD_NARROWER_TRANSITIVE, FIELD_RELATED };
+    //@formatter:on
+
+    /**
+     * The first properties are the lexical labels, whose values are literals
+     */
+    private static final int LABEL_PROPERTIES = 3;
+    /**
+     * The code of the rdf:type skos:Concept statements
+     */
+    private static final int TYPE_CONCEPT = PROPERTY_URIS.length;
+
+    /**
+     * The heap used to group the statements by concept before spilling them to disk
+     */
+    private static final long INDEXING_BUFFER_BYTES = 64L << 20;
+
+    private static final int[] NO_CONCEPTS = new int[0];
+
+    /**
+     * The number of labels of the warm-up query log looked up together
+     */
+    private static final int WARM_UP_BATCH_SIZE = 1024;
+
+    /**
+     * Records the total number of matches, in a primitive buffer
      */
     public static class AllDocCollector extends SimpleCollector {
 
-        private final List<Integer> docs = new ArrayList<>();
+        private int[] docs = new int[16];
+        private int size;
         private int base;
 
         @Override
@@ -74,7 +152,10 @@ public class SkosEngineImpl implements SkosEngine, LuceneIndexFields {
 
         @Override
         public void collect(final int doc) throws IOException {
-            this.docs.add(doc + this.base);
+            if (this.size == this.docs.length) {
+                this.docs = Arrays.copyOf(this.docs, this.size * 2);
+            }
+            this.docs[this.size++] = doc + this.base;
         }
 
         @Override
@@ -87,109 +168,689 @@ public class SkosEngineImpl implements SkosEngine, LuceneIndexFields {
             return false;
         }
 
-        public List<Integer> getDocs() {
-            return this.docs;
+        /**
+         * @return the global ids of the matching documents, in collection order
+         */
+        public int[] getDocs() {
+            return Arrays.copyOf(this.docs, this.size);
         }
     }
 
-    /**
-     * The input SKOS model
-     */
-    private Model skosModel;
     /**
      * The location of the concept index
      */
+    private final Path indexPath;
+
     private final Directory indexDir;
     /**
-     * Provides access to the index
+     * Provides the current view of the index
      */
-    private IndexSearcher searcher;
+    private volatile SkosSearcherManager searcherManager;
     /**
-     * The languages to be considered when returning labels.
+     * The language of the labels kept when indexing, the concepts without a label in it being left out.
      *
      * If NULL, all languages are supported
      */
+    private String labelLanguage;
 
     private Normalizer normalizer;
 
+    private int transitiveClosureDepth;
+
+    private double bloomFilterFalsePositiveProbability = LabelBloomFilter.DEFAULT_FALSE_POSITIVE_PROBABILITY;
+
+    private final BloomFilterStatistics bloomFilterStatistics = new BloomFilterStatistics();
+    /**
+     * The maximum number of values of the lookup caches of each view of the index
+     */
+    private long cacheSize;
+
+    private IndexLayout indexLayout = IndexLayout.FULL;
+
+    private boolean preload;
+
+    private boolean warmUp;
+
+    /**
+     * Whether the directory of the index is never written, its derived structures being used as stored
+     */
+    private boolean readOnly;
+
+    /**
+     * The labels looked up when warming up a view, one per line, or null
+     */
+    private Path warmUpQueryLog;
+
+    /**
+     * The directory of the {@link ConceptIdRegistry} of the views, or null
+     */
+    private Path conceptIdRegistry;
+
+    /**
+     * The number of open views of each commit generation, whose derived files are not deleted
+     */
+    private final Map<Long, Integer> viewGenerations = new HashMap<>();
+
     public SkosEngineImpl(final File indexDir, final Normalizer normalizer) throws IOException {
-        this.indexDir = FSDirectory.open(indexDir.toPath());
+        this.indexPath = indexDir.getAbsoluteFile().toPath();
+        this.indexDir = FSDirectory.open(this.indexPath);
         this.normalizer = normalizer;
     }
 
     @Override
     public void indexModel(final InputStream inputStream, final String format) throws IOException {
-        if (!("N3".equals(format) || "RDF/XML".equals(format) || "TURTLE".equals(format))) {
-            throw new IOException("Invalid RDF serialization format");
+        Lang lang = toLang(format);
+
+        IndexWriter writer = this.createWriter(this.indexDir);
+        try {
+            this.indexStatements(inputStream, lang, writer);
+        } catch (IOException | RuntimeException e) {
+            writer.rollback();
+            throw e;
+        }
+
+        this.finishIndex(writer);
+    }
+
+    @Override
+    public void indexModels(final List<Callable<InputStream>> inputs, final String format) throws IOException {
+        Lang lang = toLang(format);
+
+        List<Path> partialPaths = new ArrayList<>();
+        List<Directory> partialDirs = new ArrayList<>();
+        ServiceThreadExecutor executor = ServiceThreadExecutor.newFixedThreadPool(Math.max(1, inputs.size()));
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (Callable<InputStream> input : inputs) {
+                Path partialPath = Files.createTempDirectory(this.indexPath.getParent(), this.indexPath.getFileName() + "_part");
+                partialPaths.add(partialPath);
+                Directory partialDir = FSDirectory.open(partialPath);
+                partialDirs.add(partialDir);
+
+                // each model is parsed and indexed by its own thread, into its own partial index
+                futures.add(executor.submit(() -> {
+                    try (InputStream in = input.call(); IndexWriter writer = this.createWriter(partialDir)) {
+                        this.indexStatements(in, lang, writer);
+                    }
+                    return null;
+                }));
+            }
+
+            for (Future<?> future : futures) {
+                future.get();
+            }
+
+            logger.info("Merging the " + partialDirs.size() + " partial indexes.");
+
+            IndexWriter writer = this.createWriter(this.indexDir);
+            try {
+                writer.addIndexes(partialDirs.toArray(new Directory[partialDirs.size()]));
+            } catch (IOException | RuntimeException e) {
+                writer.rollback();
+                throw e;
+            }
+
+            this.finishIndex(writer);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while indexing the SKOS models");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        } finally {
+            executor.shutdownNow();
+            IOUtils.closeWhileHandlingException(partialDirs);
+            for (Path partialPath : partialPaths) {
+                FileUtils.deleteQuietly(partialPath.toFile());
+            }
+        }
+    }
+
+    @Override
+    public synchronized void updateModels(final List<Callable<InputStream>> inputs, final String format) throws IOException {
+        Lang lang = toLang(format);
+
+        long[] counts = new long[4];
+        IndexWriter writer = this.createWriter(this.indexDir);
+        try (DirectoryReader reader = DirectoryReader.open(this.indexDir);
+                SubjectSorter sorter = new SubjectSorter(PROPERTY_URIS.length + 1, INDEXING_BUFFER_BYTES)) {
+            for (Callable<InputStream> input : inputs) {
+                try (InputStream in = input.call()) {
+                    RDFDataMgr.parse(new SkosStatementSink(sorter, this.labelLanguage), in, lang);
+                } catch (UncheckedIOException e) {
+                    throw e.getCause();
+                } catch (IOException | RuntimeException e) {
+                    throw e;
+                } catch (Exception e) {
+                    throw new IOException(e);
+                }
+            }
+
+            logger.info("SKOS statements parsed (" + sorter.getRunCount() + " runs spilled to disk). Updating the concepts.");
+
+            Terms uriTerms = MultiFields.getTerms(reader, FIELD_URI);
+            TermsEnum uris = uriTerms != null ? uriTerms.iterator(null) : null;
+            Bits liveDocs = MultiFields.getLiveDocs(reader);
+            // the indexes written before the fingerprints existed have all their concepts rewritten
+            NumericDocValues fingerprints = MultiDocValues.getNumericValues(reader, FIELD_FINGERPRINT);
+            FixedBitSet seen = new FixedBitSet(reader.maxDoc());
+
+            sorter.sort((subject, values) -> {
+                if (!this.isConcept(values)) {
+                    return;
+                }
+
+                long fingerprint = fingerprint(values);
+                int conceptId = uris != null ? ConceptGraph.getConceptId(uris, liveDocs, subject) : -1;
+                if (conceptId >= 0) {
+                    seen.set(conceptId);
+                    if (fingerprints != null && fingerprints.get(conceptId) == fingerprint) {
+                        counts[0]++;
+                        return;
+                    }
+                    counts[1]++;
+                } else {
+                    counts[2]++;
+                }
+                writer.updateDocument(new Term(FIELD_URI, subject), this.createDocumentFromConcept(subject, values, fingerprint));
+            });
+
+            // the concepts of the index missing from the models were removed from them
+            if (uriTerms != null) {
+                TermsEnum allUris = uriTerms.iterator(null);
+                PostingsEnum postings = null;
+                for (BytesRef uri = allUris.next(); uri != null; uri = allUris.next()) {
+                    postings = allUris.postings(liveDocs, postings, PostingsEnum.NONE);
+                    int doc = postings.nextDoc();
+                    if (doc != DocIdSetIterator.NO_MORE_DOCS && !seen.get(doc)) {
+                        writer.deleteDocuments(new Term(FIELD_URI, BytesRef.deepCopyOf(uri)));
+                        counts[3]++;
+                    }
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            writer.rollback();
+            throw e;
+        }
+
+        logger.info("Concept index updated: " + counts[0] + " concepts unchanged, " + counts[1] + " rewritten, " + counts[2] + " added and "
+                + counts[3] + " deleted.");
+
+        writer.close();
+        if (counts[1] + counts[2] + counts[3] > 0) {
+            // the derived structures refer to the document ids, which the rewritten concepts and the merges changed
+            try (DirectoryReader reader = DirectoryReader.open(this.indexDir)) {
+                this.writeLabelStructures(reader);
+            }
+        }
+    }
+
+    @Override
+    public synchronized void createSearch() throws IOException {
+        SkosSearcherManager previous = this.searcherManager;
+        this.searcherManager = new SkosSearcherManager(this.indexDir, this::loadSearcher);
+        // the lookups still using the previous view close it when they release it
+        if (previous != null) {
+            previous.close();
+        }
+    }
+
+    @Override
+    public synchronized void refresh() throws IOException {
+        SkosSearcherManager manager = this.searcherManager;
+        if (manager == null) {
+            this.createSearch();
+        } else {
+            manager.maybeRefreshBlocking();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        SkosSearcherManager manager = this.searcherManager;
+        this.searcherManager = null;
+        IOUtils.close(manager, this.indexDir);
+    }
+
+    /**
+     * Opens the structures derived from a new reader of the index, building the missing or outdated ones unless the
+     * index is read-only
+     */
+    private SkosSearcher loadSearcher(final DirectoryReader reader) throws IOException {
+        // the files of the generation are kept until the view is closed
+        long generation = reader.getIndexCommit().getGeneration();
+        this.acquireGeneration(generation);
+
+        LabelDictionary labelDictionary = null;
+        ConceptDictionary conceptDictionary = null;
+        ConceptGraph conceptGraph = null;
+        boolean success = false;
+        try {
+            if (!LabelLengthIndex.exists(this.indexDir, generation) || !LabelDictionary.exists(this.indexDir, generation)
+                    || !LabelBloomFilter.exists(this.indexDir, generation) || !ConceptDictionary.exists(this.indexDir, generation)
+                    || !ConceptGraph.exists(this.indexDir, generation)) {
+                if (this.readOnly) {
+                    throw new IOException("Label structures not found in the read-only concept index '" + this.indexPath + "'.");
+                }
+                logger.info("Label structures not found. Building them from the concept index.");
+                this.writeLabelStructures(reader);
+            }
+
+            LabelLengthIndex labelLengths = LabelLengthIndex.read(this.indexDir, generation);
+            labelDictionary = LabelDictionary.open(this.indexDir, generation);
+            conceptDictionary = ConceptDictionary.open(this.indexDir, generation);
+
+            conceptGraph = ConceptGraph.open(this.indexDir, generation);
+            if (conceptGraph.getTransitiveDepth() != this.transitiveClosureDepth && this.readOnly) {
+                logger.warn("Using the concept graph of the read-only index, built for a transitive closure depth of " + conceptGraph.getTransitiveDepth()
+                        + " instead of " + this.transitiveClosureDepth + ".");
+            } else if (conceptGraph.getTransitiveDepth() != this.transitiveClosureDepth) {
+                conceptGraph.close();
+                logger.info("Building the concept graph for a transitive closure depth of " + this.transitiveClosureDepth + ".");
+                this.writeConceptGraph(reader, generation);
+                conceptGraph = ConceptGraph.open(this.indexDir, generation);
+            }
+
+            LabelBloomFilter filter = LabelBloomFilter.read(this.indexDir, generation);
+            // the probability may come from a float configuration parameter, so compare it with a tolerance
+            if (Math.abs(filter.getFalsePositiveProbability() - this.bloomFilterFalsePositiveProbability) > 1e-6 && this.readOnly) {
+                logger.warn("Using the label Bloom filter of the read-only index, built for a false positive probability of "
+                        + filter.getFalsePositiveProbability() + " instead of " + this.bloomFilterFalsePositiveProbability + ".");
+            } else if (Math.abs(filter.getFalsePositiveProbability() - this.bloomFilterFalsePositiveProbability) > 1e-6) {
+                logger.info("Building the label Bloom filter for a false positive probability of " + this.bloomFilterFalsePositiveProbability + ".");
+                filter = this.writeBloomFilter(reader, generation);
+            }
+
+            logger.info("Label Bloom filter loaded (" + filter.getNumBits() / 8 / 1024 + " KB, " + filter.getNumHashes() + " hashes).");
+
+            logger.info("Label dictionary loaded (" + labelLengths.size() + " first tokens, " + labelDictionary.ramBytesUsed() / 1024
+                    + " KB of FST on heap).");
+
+            // the documents of the view may have other ids than in the previous ones, so each view maps them
+            int[] registryIds = null;
+            if (this.conceptIdRegistry != null) {
+                try (Directory registry = FSDirectory.open(this.conceptIdRegistry)) {
+                    registryIds = ConceptIdRegistry.assign(registry, reader);
+                }
+            }
+
+            SkosSearcher searcher = new SkosSearcher(reader, labelLengths, labelDictionary, conceptDictionary, conceptGraph, filter, registryIds,
+                    this.cacheSize, () -> this.releaseGeneration(generation));
+            if (this.preload || this.warmUp) {
+                this.warmUp(searcher);
+            }
+            success = true;
+            return searcher;
+        } finally {
+            if (!success) {
+                IOUtils.closeWhileHandlingException(labelDictionary, conceptDictionary, conceptGraph);
+                this.releaseGeneration(generation);
+            }
+        }
+    }
+
+    private void acquireGeneration(final long generation) {
+        synchronized (this.viewGenerations) {
+            this.viewGenerations.merge(generation, 1, Integer::sum);
+        }
+    }
+
+    /**
+     * Called when a view closed its files, which are deleted if no other view uses their generation
+     */
+    private void releaseGeneration(final long generation) {
+        synchronized (this.viewGenerations) {
+            this.viewGenerations.computeIfPresent(generation, (key, views) -> views > 1 ? views - 1 : null);
+        }
+
+        if (this.readOnly) {
+            return;
+        }
+        try {
+            this.deleteUnusedDerivedFiles();
+        } catch (IOException | AlreadyClosedException e) {
+            logger.warn("Could not delete the unused structures of the concept index", e);
+        }
+    }
+
+    /**
+     * Deletes the derived files of the generations older than the last commit which no view of this engine uses. A
+     * file that cannot be deleted, being still open by the view of another engine on some platforms, is deleted by a
+     * later call.
+     */
+    private void deleteUnusedDerivedFiles() throws IOException {
+        long lastGeneration = SegmentInfos.getLastCommitGeneration(this.indexDir);
+        Set<Long> used;
+        synchronized (this.viewGenerations) {
+            used = new HashSet<>(this.viewGenerations.keySet());
+        }
+
+        for (String file : this.indexDir.listAll()) {
+            long generation = DerivedFiles.getGeneration(file);
+            if (generation != DerivedFiles.NOT_DERIVED && generation < lastGeneration && !used.contains(generation)) {
+                try {
+                    this.indexDir.deleteFile(file);
+                } catch (IOException e) {
+                    logger.debug("Could not delete '" + file + "' of the concept index, it is deleted later", e);
+                }
+            }
         }
+    }
 
-        this.skosModel = ModelFactory.createDefaultModel();
-        this.skosModel.read(inputStream, null, format);
+    /**
+     * Pages in what the first lookups of a new view read, before the view is published. The lookups of the query log
+     * also fill the cache of the view, and are left out of the Bloom filter statistics.
+     */
+    private void warmUp(final SkosSearcher searcher) throws IOException {
+        long start = System.currentTimeMillis();
+
+        long preloaded = 0;
+        if (this.preload) {
+            // the memory-mapped inputs share the page cache the files are read into
+            byte[] buffer = new byte[1 << 16];
+            for (String fileName : this.indexDir.listAll()) {
+                if (fileName.equals(IndexWriter.WRITE_LOCK_NAME)) {
+                    continue;
+                }
+                try (IndexInput in = this.indexDir.openInput(fileName, IOContext.READONCE)) {
+                    for (long left = in.length(); left > 0; left -= buffer.length) {
+                        in.readBytes(buffer, 0, (int) Math.min(left, buffer.length));
+                    }
+                    preloaded += in.length();
+                } catch (FileNotFoundException | NoSuchFileException e) {
+                    // deleted by a merge after the listing
+                }
+            }
+        }
+
+        long terms = 0;
+        long queries = 0;
+        if (this.warmUp) {
+            for (LeafReaderContext context : searcher.getIndexReader().leaves()) {
+                for (String field : LABEL_NORM_FIELDS) {
+                    Terms fieldTerms = context.reader().terms(field);
+                    if (fieldTerms != null) {
+                        TermsEnum termsEnum = fieldTerms.iterator(null);
+                        while (termsEnum.next() != null) {
+                            terms++;
+                        }
+                    }
+                }
+            }
+
+            if (this.warmUpQueryLog != null && Files.isReadable(this.warmUpQueryLog)) {
+                queries = this.replayQueryLog(searcher);
+            } else if (this.warmUpQueryLog != null) {
+                logger.warn("Warm-up query log '" + this.warmUpQueryLog + "' not found.");
+            }
+        }
+
+        logger.info("Index warmed up in " + (System.currentTimeMillis() - start) + " ms (" + preloaded / 1024 / 1024 + " MB preloaded, " + terms
+                + " label terms walked, " + queries + " logged lookups replayed).");
+    }
+
+    /**
+     * Looks up the labels of the warm-up query log, in batches as the annotators do
+     */
+    private long replayQueryLog(final SkosSearcher searcher) throws IOException {
+        BloomFilterStatistics statistics = new BloomFilterStatistics();
+        long queries = 0;
+        try (BufferedReader in = Files.newBufferedReader(this.warmUpQueryLog, StandardCharsets.UTF_8)) {
+            List<String> labels = new ArrayList<>(WARM_UP_BATCH_SIZE);
+            for (String line = in.readLine(); line != null; line = in.readLine()) {
+                if (!line.isEmpty()) {
+                    labels.add(line);
+                }
+                if (labels.size() == WARM_UP_BATCH_SIZE) {
+                    this.getConceptIds(searcher, labels, statistics);
+                    queries += labels.size();
+                    labels.clear();
+                }
+            }
+            this.getConceptIds(searcher, labels, statistics);
+            queries += labels.size();
+        }
+        return queries;
+    }
+
+    /**
+     * Acquires the current view of the index, which must be released by {@link #release(SkosSearcher)}
+     */
+    private SkosSearcher acquire() throws IOException {
+        while (true) {
+            SkosSearcherManager manager = this.searcherManager;
+            if (manager == null) {
+                throw new IllegalStateException("The concept index is not open");
+            }
+            try {
+                return manager.acquire();
+            } catch (AlreadyClosedException e) {
+                // createSearch replaced the manager meanwhile
+                if (manager == this.searcherManager) {
+                    throw e;
+                }
+            }
+        }
+    }
+
+    private void release(final SkosSearcher searcher) throws IOException {
+        // the view is counted by its reader, so it does not matter which manager it was acquired from
+        searcher.getIndexReader().decRef();
+    }
+
+    private <T> T withSearcher(final SearcherFunction<T> function) throws IOException {
+        SkosSearcher searcher = this.acquire();
+        try {
+            return function.apply(searcher);
+        } finally {
+            this.release(searcher);
+        }
+    }
+
+    /**
+     * A lookup run on a view of the index
+     */
+    private interface SearcherFunction<T> {
+
+        T apply(SkosSearcher searcher) throws IOException;
 
-        this.entailSKOSModel();
-        this.indexSKOSModel();
     }
 
     @Override
-    public void createSearch() throws IOException {
-        this.searcher = new IndexSearcher(DirectoryReader.open(this.indexDir));
+    public int getMaxLabelTokens(final String firstToken) {
+        try {
+            return this.withSearcher(searcher -> searcher.labelLengths.getMaxTokens(firstToken));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
     }
 
-    private void entailSKOSModel() {
-        GraphStore graphStore = GraphStoreFactory.create(this.skosModel);
-        //@formatter:off
-        String sparqlQuery = 
-                "PREFIX skos: <http://www.w3.org/2004/02/skos/core#>\n" + 
-                "PREFIX rdf:<http://www.w3.org/1999/02/22-rdf-syntax-ns#>\n" +
-                "INSERT { ?subject rdf:type skos:Concept }\n" + 
-                "WHERE {\n" + "{ ?subject skos:prefLabel ?text } UNION\n" +
-                    "{ ?subject skos:altLabel ?text } UNION\n" + 
-                    "{ ?subject skos:hiddenLabel ?text }\n" + 
-                "}";
-        //@formatter:on
-        UpdateRequest request = UpdateFactory.create(sparqlQuery);
-        UpdateAction.execute(request, graphStore);
+    @Override
+    public int getMaxLabelTokens() {
+        try {
+            return this.withSearcher(searcher -> searcher.labelLengths.getMaxTokens());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public void setCacheSize(final long maxValues) {
+        this.cacheSize = maxValues;
+    }
+
+    @Override
+    public LruCache<String, int[]> getLabelCache() {
+        try {
+            return this.searcherManager != null ? this.withSearcher(searcher -> searcher.labelCache) : null;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public LruCache<String, Collection<String>> getFieldCache() {
+        try {
+            return this.searcherManager != null ? this.withSearcher(searcher -> searcher.fieldCache) : null;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
     }
 
     /**
-     * Creates lucene documents from SKOS concept. In order to allow language restrictions, one document per language is
-     * created.
+     * Sets the false positive probability the label Bloom filter is sized for. It is applied to the filter written by the
+     * next indexing and the filter is rebuilt on {@link #createSearch()} when the stored one was sized differently.
+     *
+     * @param falsePositiveProbability a probability between 0 and 1 (exclusive)
      */
-    private Document createDocumentsFromConcept(final Resource skos_concept) {
+    public void setBloomFilterFalsePositiveProbability(final double falsePositiveProbability) {
+        if (falsePositiveProbability <= 0 || falsePositiveProbability >= 1) {
+            throw new IllegalArgumentException("Invalid false positive probability " + falsePositiveProbability);
+        }
+        this.bloomFilterFalsePositiveProbability = falsePositiveProbability;
+    }
+
+    /**
+     * Sets the number of broader or narrower edges followed to compute the transitive relations of the concepts, which
+     * are otherwise only the stated ones. It is applied to the graph written by the next indexing and the graph is
+     * rebuilt on {@link #createSearch()} when the stored one was computed to another depth.
+     *
+     * @param depth the depth, 0 to keep only the stated transitive relations or {@link Integer#MAX_VALUE} for the full
+     *            closures
+     */
+    public void setTransitiveClosureDepth(final int depth) {
+        if (depth < 0) {
+            throw new IllegalArgumentException("Invalid transitive closure depth " + depth);
+        }
+        this.transitiveClosureDepth = depth;
+    }
+
+    /**
+     * Sets what the next indexing keeps of each concept. An index already written keeps its layout.
+     */
+    public void setIndexLayout(final IndexLayout indexLayout) {
+        this.indexLayout = indexLayout;
+    }
+
+    /**
+     * Restricts the next indexing to the labels of a language, as "pt" or "en", and to the concepts having at least one
+     * of them. The labels without a language tag are kept in any language. Null keeps every label.
+     */
+    public void setLabelLanguage(final String language) {
+        this.labelLanguage = language;
+    }
+
+    /**
+     * Sets whether the files of the index and of its structures are read through when a view is opened, so the first
+     * lookups do not wait for the memory-mapped pages to load from disk.
+     */
+    public void setPreload(final boolean preload) {
+        this.preload = preload;
+    }
+
+    /**
+     * Sets whether the index is only read, as a bundle opened where it is. The views then use the stored structures:
+     * {@link #createSearch()} fails when they are missing, and the ones built with another transitive closure depth or
+     * Bloom filter false positive probability are used with a warning instead of being rebuilt. The structures of older
+     * commits are not deleted either. The index must not be written while it is read-only.
+     */
+    public void setReadOnly(final boolean readOnly) {
+        this.readOnly = readOnly;
+    }
+
+    /**
+     * Sets whether each new view of the index is warmed up before the lookups use it, by walking the term dictionaries
+     * of the normalized labels and looking up the labels of the query log, if any.
+     *
+     * @param queryLog a file with one normalized label per line, as the lookups receive them, or null
+     */
+    public void setWarmUp(final boolean warmUp, final Path queryLog) {
+        this.warmUp = warmUp;
+        this.warmUpQueryLog = queryLog;
+    }
+
+    /**
+     * Sets the directory of the {@link ConceptIdRegistry} whose ids {@link #getRegisteredConceptIds(Collection)}
+     * returns. Each view opened afterwards registers the concepts not known yet when it is loaded.
+     *
+     * @param registry the directory of the registry, shared by the indexes whose annotations are stored together, or
+     *        null
+     */
+    public void setConceptIdRegistry(final File registry) {
+        this.conceptIdRegistry = registry != null ? registry.getAbsoluteFile().toPath() : null;
+    }
+
+    public BloomFilterStatistics getBloomFilterStatistics() {
+        return this.bloomFilterStatistics;
+    }
+
+    /**
+     * Returns whether the statements of a resource make it a concept, which is the case of the resources having a
+     * lexical label too. When the labels are restricted to a language, a concept must have one of them.
+     */
+    private boolean isConcept(final List<Set<String>> values) {
+        boolean concept = this.labelLanguage == null && !values.get(TYPE_CONCEPT).isEmpty();
+        for (int i = 0; i < LABEL_PROPERTIES && !concept; i++) {
+            concept = !values.get(i).isEmpty();
+        }
+        return concept;
+    }
+
+    /**
+     * Returns a hash of the statements of a concept, independent of their order, so an update can tell the concepts
+     * that changed
+     */
+    private static long fingerprint(final List<Set<String>> values) {
+        long fingerprint = 0;
+        for (int i = 0; i < values.size(); i++) {
+            for (String value : values.get(i)) {
+                // FNV-1a of the property code and the value, mixed so that the sum of the hashes does not cancel out
+                long h = 0xcbf29ce484222325L ^ i;
+                for (int c = 0; c < value.length(); c++) {
+                    h = (h ^ value.charAt(c)) * 0x100000001b3L;
+                }
+                h ^= h >>> 33;
+                h *= 0xff51afd7ed558ccdL;
+                h ^= h >>> 33;
+                fingerprint += h;
+            }
+        }
+        return fingerprint;
+    }
+
+    /**
+     * Creates the lucene document of a SKOS concept from its statements
+     */
+    private Document createDocumentFromConcept(final String conceptURI, final List<Set<String>> values, final long fingerprint) {
+        boolean full = this.indexLayout == IndexLayout.FULL;
+        FieldType type = full ? StringField.TYPE_STORED : StringField.TYPE_NOT_STORED;
+
         Document conceptDoc = new Document();
-        String conceptURI = skos_concept.getURI();
-        Field uriField = new Field(FIELD_URI, conceptURI, StringField.TYPE_STORED);
+        Field uriField = new Field(FIELD_URI, conceptURI, type);
         conceptDoc.add(uriField);
-        // store the preferred lexical labels
-        this.indexAnnotation(skos_concept, conceptDoc, Skos.prefLabel, FIELD_PREF_LABEL, false);
-        // store the alternative lexical labels
-        this.indexAnnotation(skos_concept, conceptDoc, Skos.altLabel, FIELD_ALT_LABEL, false);
-        // store the hidden lexical labels
-        this.indexAnnotation(skos_concept, conceptDoc, Skos.hiddenLabel, FIELD_HIDDEN_LABEL, false);
-        // store the URIs of the broader concepts
-        this.indexObject(skos_concept, conceptDoc, Skos.broader, FIELD_BROADER);
-        // store the URIs of the broader transitive concepts
-        this.indexObject(skos_concept, conceptDoc, Skos.broaderTransitive, FIELD_BROADER_TRANSITIVE);
-        // store the URIs of the narrower concepts
-        this.indexObject(skos_concept, conceptDoc, Skos.narrower, FIELD_NARROWER);
-        // store the URIs of the narrower transitive concepts
-        this.indexObject(skos_concept, conceptDoc, Skos.narrowerTransitive, FIELD_NARROWER_TRANSITIVE);
-        // store the URIs of the related concepts
-        this.indexObject(skos_concept, conceptDoc, Skos.related, FIELD_RELATED);
+        // the URI is also kept column wise, so it is read without decompressing the stored fields
+        conceptDoc.add(new SortedDocValuesField(FIELD_URI, new BytesRef(conceptURI)));
+        conceptDoc.add(new NumericDocValuesField(FIELD_FINGERPRINT, fingerprint));
+        // store the lexical labels and the URIs of the related concepts, the lookup layout only needing the latter
+        for (int i = full ? 0 : LABEL_PROPERTIES; i < PROPERTY_FIELDS.length; i++) {
+            this.indexValues(conceptDoc, values.get(i), PROPERTY_FIELDS[i], type, false);
+        }
 
         // store the preferred lexical labels normalized
-        this.indexAnnotation(skos_concept, conceptDoc, Skos.prefLabel, FIELD_PREF_LABEL_NORM, true);
+        this.indexValues(conceptDoc, values.get(0), FIELD_PREF_LABEL_NORM, type, true);
         // store the alternative lexical labels normalized
-        this.indexAnnotation(skos_concept, conceptDoc, Skos.altLabel, FIELD_ALT_LABEL_NORM, true);
+        this.indexValues(conceptDoc, values.get(1), FIELD_ALT_LABEL_NORM, type, true);
         // store the hidden lexical labels normalized
-        this.indexAnnotation(skos_concept, conceptDoc, Skos.hiddenLabel, FIELD_HIDDEN_LABEL_NORM, true);
+        this.indexValues(conceptDoc, values.get(2), FIELD_HIDDEN_LABEL_NORM, type, true);
 
         return conceptDoc;
     }
 
     @Override
     public Collection<String> getAltLabels(final String conceptURI) throws IOException {
-        return this.readConceptFieldValues(conceptURI, FIELD_ALT_LABEL);
+        return this.withSearcher(searcher -> this.readConceptFieldValues(searcher, conceptURI, FIELD_ALT_LABEL));
     }
 
     @Override
@@ -198,14 +859,11 @@ public class SkosEngineImpl implements SkosEngine, LuceneIndexFields {
         // convert the query to lower-case
         String queryString = label.toLowerCase(Locale.ROOT);
         try {
-            Collection<String> conceptURIs = this.getConcepts(queryString, normalize);
-            if (conceptURIs != null) {
-                for (String conceptURI : conceptURIs) {
-                    Collection<String> altLabels = this.getAltLabels(conceptURI);
-                    if (altLabels != null) {
-                        result.addAll(altLabels);
-                    }
-                }
+            String normalizedQuery = normalize ? this.normalizer.normalize(queryString) : queryString;
+            ConceptFieldValues altLabels = this.withSearcher(
+                    searcher -> this.getFieldValues(searcher, this.getConceptIds(searcher, normalizedQuery), FIELD_ALT_LABEL));
+            for (int i = 0; i < altLabels.size(); i++) {
+                result.addAll(Arrays.asList(altLabels.getAt(i, FIELD_ALT_LABEL)));
             }
         } catch (Exception e) {
             logger.warn(e.getMessage(), e);
@@ -215,164 +873,535 @@ public class SkosEngineImpl implements SkosEngine, LuceneIndexFields {
 
     @Override
     public Collection<String> getHiddenLabels(final String conceptURI) throws IOException {
-        return this.readConceptFieldValues(conceptURI, FIELD_HIDDEN_LABEL);
+        return this.withSearcher(searcher -> this.readConceptFieldValues(searcher, conceptURI, FIELD_HIDDEN_LABEL));
     }
 
     @Override
     public Collection<String> getBroaderConcepts(final String conceptURI) throws IOException {
-        return this.readConceptFieldValues(conceptURI, FIELD_BROADER);
+        return this.withSearcher(searcher -> this.getRelatedConcepts(searcher, conceptURI, ConceptGraph.Relation.BROADER));
+    }
+
+    @Override
+    public int[] getBroaderConceptIds(final int conceptId) throws IOException {
+        return this.withSearcher(searcher -> searcher.conceptGraph.getTargets(ConceptGraph.Relation.BROADER, conceptId));
     }
 
     @Override
     public Collection<String> getBroaderLabels(final String conceptURI) throws IOException {
-        return this.getLabels(conceptURI, FIELD_BROADER);
+        return this.getRelatedLabels(conceptURI, ConceptGraph.Relation.BROADER);
     }
 
     @Override
     public Collection<String> getBroaderTransitiveConcepts(final String conceptURI) throws IOException {
-        return this.readConceptFieldValues(conceptURI, FIELD_BROADER_TRANSITIVE);
+        return this.withSearcher(searcher -> this.getRelatedConcepts(searcher, conceptURI, ConceptGraph.Relation.BROADER_TRANSITIVE));
+    }
+
+    @Override
+    public int[] getBroaderTransitiveConceptIds(final int conceptId) throws IOException {
+        return this.withSearcher(searcher -> searcher.conceptGraph.getTargets(ConceptGraph.Relation.BROADER_TRANSITIVE, conceptId));
     }
 
     @Override
     public Collection<String> getBroaderTransitiveLabels(final String conceptURI) throws IOException {
-        return this.getLabels(conceptURI, FIELD_BROADER_TRANSITIVE);
+        return this.getRelatedLabels(conceptURI, ConceptGraph.Relation.BROADER_TRANSITIVE);
     }
 
     @Override
     public Collection<String> getConcepts(final String label, final boolean normalize) throws IOException {
-        Set<String> concepts = new HashSet<>();
         String queryString = normalize ? this.normalizer.normalize(label) : label;
-        AllDocCollector collector = new AllDocCollector();
-       
-        BooleanQuery query = new BooleanQuery();
-        query.add(new TermQuery(new Term(FIELD_PREF_LABEL_NORM, queryString)), Occur.SHOULD);
-        query.add(new TermQuery(new Term(FIELD_ALT_LABEL_NORM, queryString)), Occur.SHOULD);
-        query.add(new TermQuery(new Term(FIELD_HIDDEN_LABEL_NORM, queryString)), Occur.SHOULD);
-        this.searcher.search(query, collector);
-        
-        for (Integer hit : collector.getDocs()) {
-            Document doc = this.searcher.doc(hit);
-            String conceptURI = doc.getValues(FIELD_URI)[0];
-            concepts.add(conceptURI);
+
+        return this.withSearcher(searcher -> {
+            Set<String> concepts = new HashSet<>();
+            for (int conceptId : this.getConceptIds(searcher, queryString)) {
+                concepts.add(searcher.conceptDictionary.getUri(conceptId));
+            }
+            return concepts;
+        });
+    }
+
+    /**
+     * Returns the sorted ids of the concepts having the given normalized label
+     */
+    private int[] getConceptIds(final SkosSearcher searcher, final String label) throws IOException {
+        BytesRef term = new BytesRef(label);
+
+        if (!searcher.bloomFilter.mightContain(term)) {
+            this.bloomFilterStatistics.recordMiss();
+            return NO_CONCEPTS;
+        }
+
+        if (searcher.labelCache != null) {
+            return searcher.labelCache.get(label, key -> this.searchConceptIds(searcher, term));
+        }
+        return this.searchConceptIds(searcher, term);
+    }
+
+    @Override
+    public Map<String, int[]> getConceptIds(final Collection<String> labels) throws IOException {
+        return this.withSearcher(searcher -> this.getConceptIds(searcher, labels, this.bloomFilterStatistics));
+    }
+
+    private Map<String, int[]> getConceptIds(final SkosSearcher searcher, final Collection<String> labels, final BloomFilterStatistics statistics)
+            throws IOException {
+        Map<String, int[]> result = new HashMap<>();
+
+        List<BytesRef> terms = new ArrayList<>(labels.size());
+        for (String label : new HashSet<>(labels)) {
+            BytesRef term = new BytesRef(label);
+
+            if (!searcher.bloomFilter.mightContain(term)) {
+                statistics.recordMiss();
+                continue;
+            }
+
+            int[] conceptIds = searcher.labelCache != null ? searcher.labelCache.getIfPresent(label) : null;
+            if (conceptIds == null) {
+                terms.add(term);
+            } else if (conceptIds.length > 0) {
+                result.put(label, conceptIds);
+            }
+        }
+
+        // the dictionary is walked in the order of the terms, which is the byte order of their UTF-8 encoding
+        BytesRef[] sortedTerms = terms.toArray(new BytesRef[terms.size()]);
+        Arrays.sort(sortedTerms);
+
+        long start = System.nanoTime();
+        int[][] conceptIds = searcher.labelDictionary.getConcepts(sortedTerms);
+        long loadTime = (System.nanoTime() - start) / Math.max(1, sortedTerms.length);
+
+        for (int i = 0; i < sortedTerms.length; i++) {
+            recordBloomFilterResult(statistics, conceptIds[i]);
+            putConceptIds(searcher, result, sortedTerms[i], conceptIds[i], loadTime);
+        }
+        return result;
+    }
+
+    @Override
+    public String getConceptUri(final int conceptId) throws IOException {
+        return this.withSearcher(searcher -> searcher.conceptDictionary.getUri(conceptId));
+    }
+
+    /**
+     * Returns the ids in the {@link ConceptIdRegistry} of the concepts matching each of the given normalized labels.
+     * The labels are looked up and their concepts mapped to the registry in the same view, so the ids keep referring to
+     * the same concepts when {@link #createSearch()} or {@link #refresh()} swap the view.
+     *
+     * @return the sorted registry ids of the labels matching at least one concept
+     * @throws IllegalStateException if the view was opened without a registry
+     */
+    public Map<String, int[]> getRegisteredConceptIds(final Collection<String> labels) throws IOException {
+        return this.withSearcher(searcher -> {
+            if (searcher.registryIds == null) {
+                throw new IllegalStateException("The concept index was opened without a concept id registry");
+            }
+
+            Map<String, int[]> result = this.getConceptIds(searcher, labels, this.bloomFilterStatistics);
+            for (Map.Entry<String, int[]> match : result.entrySet()) {
+                // the arrays of the view may be cached, so they are not mapped in place
+                int[] conceptIds = match.getValue();
+                int[] registryIds = new int[conceptIds.length];
+                for (int i = 0; i < conceptIds.length; i++) {
+                    registryIds[i] = searcher.registryIds[conceptIds[i]];
+                }
+                Arrays.sort(registryIds);
+                match.setValue(registryIds);
+            }
+            return result;
+        });
+    }
+
+    @Override
+    public int getConceptId(final String conceptURI) throws IOException {
+        return this.withSearcher(searcher -> getConceptId(searcher, conceptURI));
+    }
+
+    private static int getConceptId(final SkosSearcher searcher, final String conceptURI) throws IOException {
+        IndexReader reader = searcher.getIndexReader();
+        Terms uris = MultiFields.getTerms(reader, FIELD_URI);
+        if (uris == null) {
+            return -1;
+        }
+        return ConceptGraph.getConceptId(uris.iterator(null), MultiFields.getLiveDocs(reader), conceptURI);
+    }
+
+    @Override
+    public ConceptFieldValues getFieldValues(final int[] conceptIds, final String... fields) throws IOException {
+        return this.withSearcher(searcher -> this.getFieldValues(searcher, conceptIds, fields));
+    }
+
+    private ConceptFieldValues getFieldValues(final SkosSearcher searcher, final int[] conceptIds, final String... fields) throws IOException {
+        IndexReader reader = searcher.getIndexReader();
+        Bits liveDocs = MultiFields.getLiveDocs(reader);
+        Set<String> fieldsToLoad = new HashSet<>(Arrays.asList(fields));
+
+        int[] ids = conceptIds.clone();
+        Arrays.sort(ids);
+        String[][][] values = new String[ids.length][][];
+        int found = 0;
+        // the concepts are visited in id order, so the blocks of the stored fields are read sequentially
+        for (int id : ids) {
+            if (found > 0 && ids[found - 1] == id || id < 0 || id >= reader.maxDoc() || liveDocs != null && !liveDocs.get(id)) {
+                continue;
+            }
+
+            Document document = reader.document(id, fieldsToLoad);
+            String[][] conceptValues = new String[fields.length][];
+            for (int f = 0; f < fields.length; f++) {
+                conceptValues[f] = document.getValues(fields[f]);
+            }
+            ids[found] = id;
+            values[found++] = conceptValues;
+        }
+        return new ConceptFieldValues(Arrays.copyOf(ids, found), fields.clone(), Arrays.copyOf(values, found));
+    }
+
+    @Override
+    public ConceptFieldValues getFieldValues(final Collection<String> conceptURIs, final String... fields) throws IOException {
+        return this.withSearcher(searcher -> this.getFieldValues(searcher, conceptURIs, fields));
+    }
+
+    private ConceptFieldValues getFieldValues(final SkosSearcher searcher, final Collection<String> conceptURIs, final String... fields)
+            throws IOException {
+        IndexReader reader = searcher.getIndexReader();
+        Terms uris = MultiFields.getTerms(reader, FIELD_URI);
+        if (uris == null) {
+            return this.getFieldValues(searcher, NO_CONCEPTS, fields);
+        }
+
+        // the URIs are resolved in sorted order, so the terms dictionary is walked forward
+        String[] sortedURIs = conceptURIs.toArray(new String[conceptURIs.size()]);
+        Arrays.sort(sortedURIs);
+        TermsEnum urisEnum = uris.iterator(null);
+        Bits liveDocs = MultiFields.getLiveDocs(reader);
+        int[] conceptIds = new int[sortedURIs.length];
+        int found = 0;
+        for (String conceptURI : sortedURIs) {
+            int conceptId = ConceptGraph.getConceptId(urisEnum, liveDocs, conceptURI);
+            if (conceptId >= 0) {
+                conceptIds[found++] = conceptId;
+            }
+        }
+        return this.getFieldValues(searcher, Arrays.copyOf(conceptIds, found), fields);
+    }
+
+    /**
+     * Returns the URIs of the concepts the given concept has an edge of the relation to, followed by the stated targets
+     * that are not concepts of the index, or null if the concept is unknown
+     */
+    private Collection<String> getRelatedConcepts(final SkosSearcher searcher, final String conceptURI, final ConceptGraph.Relation relation)
+            throws IOException {
+        int conceptId = getConceptId(searcher, conceptURI);
+        if (conceptId < 0) {
+            logger.warn("Unknown concept " + conceptURI);
+            return null;
+        }
+
+        int[] targets = searcher.conceptGraph.getTargets(relation, conceptId);
+        List<String> concepts = new ArrayList<>(targets.length);
+        for (int target : targets) {
+            concepts.add(searcher.conceptDictionary.getUri(target));
+        }
+
+        // the graph only has the edges to concepts of the index, the other targets are read from the stored relation
+        String[] stated = searcher.getIndexReader().document(conceptId, Collections.singleton(relation.field)).getValues(relation.field);
+        if (stated.length > 0) {
+            Set<String> resolved = new HashSet<>(concepts);
+            for (String target : stated) {
+                if (resolved.add(target)) {
+                    concepts.add(target);
+                }
+            }
         }
         return concepts;
     }
 
-    private Collection<String> getLabels(final String conceptURI, final String field) throws IOException {
-        Set<String> labels = new HashSet<>();
-        Collection<String> concepts = this.readConceptFieldValues(conceptURI, field);
-        if (concepts != null) {
-            for (String aConceptURI : concepts) {
-                labels.addAll(this.getPrefLabels(aConceptURI));
-                labels.addAll(this.getAltLabels(aConceptURI));
+    /**
+     * Returns the labels of the concepts the given concept has an edge of the relation to
+     */
+    private Collection<String> getRelatedLabels(final String conceptURI, final ConceptGraph.Relation relation) throws IOException {
+        return this.withSearcher(searcher -> {
+            Set<String> labels = new HashSet<>();
+            Collection<String> concepts = this.getRelatedConcepts(searcher, conceptURI, relation);
+            if (concepts != null) {
+                ConceptFieldValues values = this.getFieldValues(searcher, concepts, FIELD_PREF_LABEL, FIELD_ALT_LABEL);
+                for (int i = 0; i < values.size(); i++) {
+                    labels.addAll(Arrays.asList(values.getAt(i, FIELD_PREF_LABEL)));
+                    labels.addAll(Arrays.asList(values.getAt(i, FIELD_ALT_LABEL)));
+                }
             }
+            return labels;
+        });
+    }
+
+    private static void putConceptIds(final SkosSearcher searcher, final Map<String, int[]> result, final BytesRef term, final int[] conceptIds,
+            final long loadTime) {
+        String label = term.utf8ToString();
+
+        if (searcher.labelCache != null) {
+            searcher.labelCache.put(label, conceptIds, loadTime);
+        }
+        if (conceptIds.length > 0) {
+            result.put(label, conceptIds);
+        }
+    }
+
+    private int[] searchConceptIds(final SkosSearcher searcher, final BytesRef term) throws IOException {
+        int[] conceptIds = searcher.labelDictionary.getConcepts(term);
+        recordBloomFilterResult(this.bloomFilterStatistics, conceptIds);
+        return conceptIds;
+    }
+
+    private static void recordBloomFilterResult(final BloomFilterStatistics statistics, final int[] conceptIds) {
+        if (conceptIds.length == 0) {
+            statistics.recordFalsePositive();
+        } else {
+            statistics.recordHit();
         }
-        return labels;
     }
 
     @Override
     public Collection<String> getNarrowerConcepts(final String conceptURI) throws IOException {
-        return this.readConceptFieldValues(conceptURI, FIELD_NARROWER);
+        return this.withSearcher(searcher -> this.getRelatedConcepts(searcher, conceptURI, ConceptGraph.Relation.NARROWER));
+    }
+
+    @Override
+    public int[] getNarrowerConceptIds(final int conceptId) throws IOException {
+        return this.withSearcher(searcher -> searcher.conceptGraph.getTargets(ConceptGraph.Relation.NARROWER, conceptId));
     }
 
     @Override
     public Collection<String> getNarrowerLabels(final String conceptURI) throws IOException {
-        return this.getLabels(conceptURI, FIELD_NARROWER);
+        return this.getRelatedLabels(conceptURI, ConceptGraph.Relation.NARROWER);
     }
 
     @Override
     public Collection<String> getNarrowerTransitiveConcepts(final String conceptURI) throws IOException {
-        return this.readConceptFieldValues(conceptURI, FIELD_NARROWER_TRANSITIVE);
+        return this.withSearcher(searcher -> this.getRelatedConcepts(searcher, conceptURI, ConceptGraph.Relation.NARROWER_TRANSITIVE));
+    }
+
+    @Override
+    public int[] getNarrowerTransitiveConceptIds(final int conceptId) throws IOException {
+        return this.withSearcher(searcher -> searcher.conceptGraph.getTargets(ConceptGraph.Relation.NARROWER_TRANSITIVE, conceptId));
     }
 
     @Override
     public Collection<String> getNarrowerTransitiveLabels(final String conceptURI) throws IOException {
-        return this.getLabels(conceptURI, FIELD_NARROWER_TRANSITIVE);
+        return this.getRelatedLabels(conceptURI, ConceptGraph.Relation.NARROWER_TRANSITIVE);
     }
 
     @Override
     public Collection<String> getPrefLabels(final String conceptURI) throws IOException {
-        return this.readConceptFieldValues(conceptURI, FIELD_PREF_LABEL);
+        return this.withSearcher(searcher -> this.readConceptFieldValues(searcher, conceptURI, FIELD_PREF_LABEL));
     }
 
     @Override
     public Collection<String> getRelatedConcepts(final String conceptURI) throws IOException {
-        return this.readConceptFieldValues(conceptURI, FIELD_RELATED);
+        return this.withSearcher(searcher -> this.getRelatedConcepts(searcher, conceptURI, ConceptGraph.Relation.RELATED));
+    }
+
+    @Override
+    public int[] getRelatedConceptIds(final int conceptId) throws IOException {
+        return this.withSearcher(searcher -> searcher.conceptGraph.getTargets(ConceptGraph.Relation.RELATED, conceptId));
     }
 
     @Override
     public Collection<String> getRelatedLabels(final String conceptURI) throws IOException {
-        return this.getLabels(conceptURI, FIELD_RELATED);
+        return this.getRelatedLabels(conceptURI, ConceptGraph.Relation.RELATED);
     }
 
-    private void indexAnnotation(final Resource skos_concept, final Document conceptDoc, final AnnotationProperty property, final String field,
+    private void indexValues(final Document conceptDoc, final Collection<String> values, final String field, final FieldType type,
             final boolean normalized) {
-        StmtIterator stmt_iter = skos_concept.listProperties(property);
-        while (stmt_iter.hasNext()) {
-            Literal labelLiteral = stmt_iter.nextStatement().getObject().as(Literal.class);
-            String label = labelLiteral.getLexicalForm();
-
+        for (String value : values) {
             if (normalized) {
-                label = this.normalizer.normalize(label);
+                value = this.normalizer.normalize(value);
             }
 
-            Field labelField = new Field(field, label, StringField.TYPE_STORED);
+            conceptDoc.add(new Field(field, value, type));
+        }
+    }
 
-            conceptDoc.add(labelField);
+    private static Lang toLang(final String format) throws IOException {
+        if ("N3".equals(format)) {
+            return Lang.N3;
+        } else if ("RDF/XML".equals(format)) {
+            return Lang.RDFXML;
+        } else if ("TURTLE".equals(format)) {
+            return Lang.TURTLE;
         }
+        throw new IOException("Invalid RDF serialization format");
     }
 
-    private void indexObject(final Resource skos_concept, final Document conceptDoc, final ObjectProperty property, final String field) {
-        StmtIterator stmt_iter = skos_concept.listProperties(property);
-        while (stmt_iter.hasNext()) {
-            RDFNode concept = stmt_iter.nextStatement().getObject();
-            if (!concept.canAs(Resource.class)) {
-                logger.warn("Error when indexing relationship of concept " + skos_concept.getURI() + " .");
-                continue;
+    private IndexWriter createWriter(final Directory dir) throws IOException {
+        IndexWriterConfig cfg = new IndexWriterConfig(new StandardAnalyzer());
+        cfg.setRAMBufferSizeMB(48);
+        return new IndexWriter(dir, cfg);
+    }
+
+    /**
+     * Parses a SKOS model and adds its concepts to the index. The statements are grouped by concept on disk, so the
+     * model is never fully loaded in memory.
+     */
+    private void indexStatements(final InputStream inputStream, final Lang lang, final IndexWriter writer) throws IOException {
+        try (SubjectSorter sorter = new SubjectSorter(PROPERTY_URIS.length + 1, INDEXING_BUFFER_BYTES)) {
+            try {
+                RDFDataMgr.parse(new SkosStatementSink(sorter, this.labelLanguage), inputStream, lang);
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
             }
-            Resource resource = concept.as(Resource.class);
-            Field conceptField = new Field(field, resource.getURI(), StringField.TYPE_STORED);
-            conceptDoc.add(conceptField);
+
+            logger.info("SKOS statements parsed (" + sorter.getRunCount() + " runs spilled to disk). Indexing the concepts.");
+
+            /* iterate SKOS concepts, create Lucene docs and add them to the index */
+            sorter.sort((subject, values) -> {
+                if (this.isConcept(values)) {
+                    writer.addDocument(this.createDocumentFromConcept(subject, values, fingerprint(values)));
+                }
+            });
         }
     }
 
     /**
-     * Creates the synonym index
-     *
-     * @throws IOException
+     * Merges the concept index into a single segment, as the label structures use the document ids as concept
+     * ordinals, then writes the label structures
      */
-    private void indexSKOSModel() throws IOException {
-        IndexWriterConfig cfg = new IndexWriterConfig(new StandardAnalyzer());
-        cfg.setRAMBufferSizeMB(48);
-        IndexWriter writer = new IndexWriter(this.indexDir, cfg);
+    private void finishIndex(final IndexWriter writer) throws IOException {
+        writer.forceMerge(1);
+        writer.close();
 
-        /* iterate SKOS concepts, create Lucene docs and add them to the index */
-        if (this.skosModel != null) {
-            ResIterator concept_iter = this.skosModel.listResourcesWithProperty(RDF.type, Skos.Concept);
+        try (DirectoryReader reader = DirectoryReader.open(this.indexDir)) {
+            this.writeLabelStructures(reader);
+        }
+    }
+
+    /**
+     * Writes the structures derived from the normalized labels of the index. They must be rewritten whenever the
+     * index changes, because the label dictionary refers to the document ids.
+     */
+    private void writeLabelStructures(final DirectoryReader reader) throws IOException {
+        // named after the commit, so the views of the previous one keep their files
+        long generation = reader.getIndexCommit().getGeneration();
+        LabelLengthIndex.build(reader, LABEL_NORM_FIELDS).write(this.indexDir, generation);
+        LabelDictionary.write(reader, this.indexDir, generation, LABEL_NORM_FIELDS);
+        ConceptDictionary.write(reader, this.indexDir, generation);
+        this.writeConceptGraph(reader, generation);
+        this.writeBloomFilter(reader, generation);
+
+        this.deleteUnusedDerivedFiles();
+    }
 
-            while (concept_iter.hasNext()) {
-                Resource skos_concept = concept_iter.next();
-                Document concept_doc = this.createDocumentsFromConcept(skos_concept);
-                writer.addDocument(concept_doc);
+    private void writeConceptGraph(final IndexReader reader, final long generation) throws IOException {
+        ConceptGraph.WriteStatistics statistics = ConceptGraph.write(reader, this.indexDir, generation, this.transitiveClosureDepth);
+        if (statistics.missingEdges > 0) {
+            logger.info(statistics.missingEdges + " relations to resources that are not concepts left out of the concept graph.");
+        }
+        if (statistics.cyclicConcepts > 0) {
+            logger.info(statistics.cyclicConcepts + " concepts found in cycles of the hierarchy.");
+        }
+        logger.info("Concept graph written with " + statistics.transitiveEdges + " transitive relations.");
+    }
+
+    private LabelBloomFilter writeBloomFilter(final IndexReader reader, final long generation) throws IOException {
+        LabelBloomFilter filter = LabelBloomFilter.build(reader, this.bloomFilterFalsePositiveProbability, LABEL_NORM_FIELDS);
+        filter.write(this.indexDir, generation);
+        return filter;
+    }
+
+    private static String cacheKey(final String field, final String value) {
+        return field + '\u0000' + value;
+    }
+
+    /**
+     * Forwards the statements of the indexed SKOS properties to the sorter, as they are parsed
+     */
+    private static class SkosStatementSink extends StreamRDFBase {
+
+        private static final Map<String, Integer> PROPERTY_CODES = new HashMap<>();
+
+        static {
+            for (int i = 0; i < PROPERTY_URIS.length; i++) {
+                PROPERTY_CODES.put(PROPERTY_URIS[i], i);
             }
         }
 
-        writer.forceMerge(1);
-        writer.close();
+        private final SubjectSorter sorter;
+
+        private final String language;
+
+        SkosStatementSink(final SubjectSorter sorter, final String language) {
+            this.sorter = sorter;
+            this.language = language;
+        }
+
+        @Override
+        public void triple(final Triple triple) {
+            Node subject = triple.getSubject();
+            Node predicate = triple.getPredicate();
+            Node object = triple.getObject();
+
+            if (!subject.isURI()) {
+                return;
+            }
+
+            try {
+                if (RDF.type.asNode().equals(predicate)) {
+                    if (Skos.Concept.asNode().equals(object)) {
+                        this.sorter.add(subject.getURI(), TYPE_CONCEPT, "");
+                    }
+                    return;
+                }
+
+                Integer property = PROPERTY_CODES.get(predicate.getURI());
+                if (property == null) {
+                    return;
+                }
+
+                if (property < LABEL_PROPERTIES && object.isLiteral() && !this.isLanguage(object.getLiteralLanguage())) {
+                    return;
+                }
+
+                if (property < LABEL_PROPERTIES ? object.isLiteral() : object.isURI()) {
+                    this.sorter.add(subject.getURI(), property, property < LABEL_PROPERTIES ? object.getLiteralLexicalForm() : object.getURI());
+                } else {
+                    logger.warn("Error when indexing relationship of concept " + subject.getURI() + " .");
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        /**
+         * Returns whether a language tag, as "pt-BR", is of the language of the labels kept
+         */
+        private boolean isLanguage(final String tag) {
+            if (this.language == null || tag.isEmpty()) {
+                return true;
+            }
+            int end = tag.indexOf('-');
+            return this.language.equalsIgnoreCase(end < 0 ? tag : tag.substring(0, end));
+        }
+
     }
 
     /**
      * Returns the values of a given field for a given concept
      */
-    private Collection<String> readConceptFieldValues(final String conceptURI, final String field) throws IOException {
-        Query query = new TermQuery(new Term(FIELD_URI, conceptURI));
-        TopDocs docs = this.searcher.search(query, 1);
-        ScoreDoc[] results = docs.scoreDocs;
-        if (results.length != 1) {
+    private Collection<String> readConceptFieldValues(final SkosSearcher searcher, final String conceptURI, final String field) throws IOException {
+        if (searcher.fieldCache != null) {
+            return searcher.fieldCache.get(cacheKey(field, conceptURI), key -> searchConceptFieldValues(searcher, conceptURI, field));
+        }
+        return searchConceptFieldValues(searcher, conceptURI, field);
+    }
+
+    private static Collection<String> searchConceptFieldValues(final SkosSearcher searcher, final String conceptURI, final String field)
+            throws IOException {
+        int conceptId = getConceptId(searcher, conceptURI);
+        if (conceptId < 0) {
             logger.warn("Unknown concept " + conceptURI);
             return null;
         }
-        Document conceptDoc = this.searcher.doc(results[0].doc);
+        // only the requested field is decoded
+        Document conceptDoc = searcher.searcher.doc(conceptId, Collections.singleton(field));
         return Arrays.asList(conceptDoc.getValues(field));
     }
 
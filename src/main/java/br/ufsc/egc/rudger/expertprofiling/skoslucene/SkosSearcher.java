@@ -0,0 +1,70 @@
+package br.ufsc.egc.rudger.expertprofiling.skoslucene;
+
+import java.util.Collection;
+
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.util.IOUtils;
+
+import br.ufsc.egc.rudger.expertprofiling.concurrent.LruCache;
+
+/**
+ * A point in time view of the concept index together with the structures derived from it and the caches of its
+ * lookups. The views are swapped as a whole, so a lookup never mixes the concept ids of two versions of the index. The
+ * memory-mapped structures are closed with the reader, once the last lookup using the view released it, and then the
+ * given callback runs.
+ */
+final class SkosSearcher {
+
+    final IndexSearcher searcher;
+
+    final LabelLengthIndex labelLengths;
+
+    final LabelDictionary labelDictionary;
+
+    final ConceptDictionary conceptDictionary;
+
+    final ConceptGraph conceptGraph;
+
+    final LabelBloomFilter bloomFilter;
+
+    /**
+     * The id of each document of the view in the {@link ConceptIdRegistry} of the engine, or null when it has none
+     */
+    final int[] registryIds;
+
+    /**
+     * The cache of the concept ids of the normalized labels, or null
+     */
+    final LruCache<String, int[]> labelCache;
+
+    /**
+     * The cache of the field values of the concepts, keyed by field and concept URI, or null
+     */
+    final LruCache<String, Collection<String>> fieldCache;
+
+    SkosSearcher(final DirectoryReader reader, final LabelLengthIndex labelLengths, final LabelDictionary labelDictionary,
+            final ConceptDictionary conceptDictionary, final ConceptGraph conceptGraph, final LabelBloomFilter bloomFilter, final int[] registryIds,
+            final long cacheSize, final Runnable onClose) {
+        this.searcher = new IndexSearcher(reader);
+        this.labelLengths = labelLengths;
+        this.labelDictionary = labelDictionary;
+        this.conceptDictionary = conceptDictionary;
+        this.conceptGraph = conceptGraph;
+        this.bloomFilter = bloomFilter;
+        this.registryIds = registryIds;
+        // each entry weighs its values plus one, so empty results are bounded too
+        this.labelCache = cacheSize > 0 ? new LruCache<>(cacheSize, conceptIds -> conceptIds.length + 1) : null;
+        this.fieldCache = cacheSize > 0 ? new LruCache<>(cacheSize, values -> values.size() + 1) : null;
+
+        reader.addReaderClosedListener(closed -> {
+            IOUtils.closeWhileHandlingException(labelDictionary, conceptDictionary, conceptGraph);
+            onClose.run();
+        });
+    }
+
+    DirectoryReader getIndexReader() {
+        return (DirectoryReader) this.searcher.getIndexReader();
+    }
+
+}
@@ -0,0 +1,66 @@
+package br.ufsc.egc.rudger.expertprofiling.skoslucene;
+
+import java.io.IOException;
+
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.search.ReferenceManager;
+import org.apache.lucene.store.Directory;
+
+/**
+ * Shares the current {@link SkosSearcher} between threads, as Lucene's SearcherManager does for plain searchers. A
+ * refresh reopens the reader when the index changed and loads the structures of the new version, and the previous view
+ * is closed once every thread that acquired it released it.
+ */
+final class SkosSearcherManager extends ReferenceManager<SkosSearcher> {
+
+    /**
+     * Creates the view of a newly opened reader
+     */
+    interface Loader {
+
+        SkosSearcher load(DirectoryReader reader) throws IOException;
+
+    }
+
+    private final Loader loader;
+
+    SkosSearcherManager(final Directory dir, final Loader loader) throws IOException {
+        this.loader = loader;
+        this.current = this.load(DirectoryReader.open(dir));
+    }
+
+    @Override
+    protected void decRef(final SkosSearcher reference) throws IOException {
+        reference.getIndexReader().decRef();
+    }
+
+    @Override
+    protected SkosSearcher refreshIfNeeded(final SkosSearcher referenceToRefresh) throws IOException {
+        DirectoryReader reader = DirectoryReader.openIfChanged(referenceToRefresh.getIndexReader());
+        return reader != null ? this.load(reader) : null;
+    }
+
+    @Override
+    protected boolean tryIncRef(final SkosSearcher reference) throws IOException {
+        return reference.getIndexReader().tryIncRef();
+    }
+
+    @Override
+    protected int getRefCount(final SkosSearcher reference) {
+        return reference.getIndexReader().getRefCount();
+    }
+
+    private SkosSearcher load(final DirectoryReader reader) throws IOException {
+        boolean success = false;
+        try {
+            SkosSearcher searcher = this.loader.load(reader);
+            success = true;
+            return searcher;
+        } finally {
+            if (!success) {
+                reader.close();
+            }
+        }
+    }
+
+}
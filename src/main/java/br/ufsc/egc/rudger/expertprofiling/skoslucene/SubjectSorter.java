@@ -0,0 +1,244 @@
+package br.ufsc.egc.rudger.expertprofiling.skoslucene;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+
+/**
+ * Groups the (subject, property, value) statements of a RDF stream by subject using a bounded amount of heap. The
+ * statements are buffered until the buffer is full, then sorted by subject and spilled to a temporary run file. The
+ * runs are finally merged, so each subject is handed over once with all its values, whatever the order of the input.
+ */
+class SubjectSorter implements Closeable {
+
+    /**
+     * Receives each subject with its distinct values, indexed by property.
+     */
+    interface SubjectHandler {
+
+        void handle(String subject, List<Set<String>> values) throws IOException;
+
+    }
+
+    // the estimated heap cost of a buffered statement, besides its characters
+    private static final int STATEMENT_OVERHEAD = 96;
+
+    private static final Comparator<Statement> BY_SUBJECT = (s1, s2) -> s1.subject.compareTo(s2.subject);
+
+    private final int properties;
+
+    private final long maxBufferBytes;
+
+    private final List<Statement> buffer = new ArrayList<>();
+
+    private long bufferBytes;
+
+    private final List<File> runs = new ArrayList<>();
+
+    private String lastSubject;
+
+    SubjectSorter(final int properties, final long maxBufferBytes) {
+        this.properties = properties;
+        this.maxBufferBytes = maxBufferBytes;
+    }
+
+    void add(final String subject, final int property, final String value) throws IOException {
+        // the statements of a subject are usually consecutive, so they share a single copy of it
+        if (!subject.equals(this.lastSubject)) {
+            this.lastSubject = subject;
+            this.bufferBytes += 2L * subject.length();
+        }
+
+        this.buffer.add(new Statement(this.lastSubject, property, value));
+        this.bufferBytes += STATEMENT_OVERHEAD + 2L * value.length();
+
+        if (this.bufferBytes >= this.maxBufferBytes) {
+            this.spill();
+        }
+    }
+
+    int getRunCount() {
+        return this.runs.size();
+    }
+
+    /**
+     * Hands over every subject, in subject order. The sort is stable, so the values keep the order of the input.
+     */
+    void sort(final SubjectHandler handler) throws IOException {
+        if (this.runs.isEmpty()) {
+            this.buffer.sort(BY_SUBJECT);
+            Iterator<Statement> it = this.buffer.iterator();
+            this.group(() -> it.hasNext() ? it.next() : null, handler);
+            this.buffer.clear();
+            return;
+        }
+
+        this.spill();
+
+        List<RunReader> readers = new ArrayList<>(this.runs.size());
+        try {
+            for (File run : this.runs) {
+                readers.add(new RunReader(run, readers.size()));
+            }
+
+            // ties are broken by run, the runs being in input order
+            PriorityQueue<RunReader> queue = new PriorityQueue<>(readers.size(),
+                    Comparator.comparing((final RunReader reader) -> reader.current.subject).thenComparingInt(reader -> reader.index));
+            for (RunReader reader : readers) {
+                if (reader.next()) {
+                    queue.add(reader);
+                }
+            }
+
+            this.group(() -> {
+                RunReader reader = queue.poll();
+                if (reader == null) {
+                    return null;
+                }
+
+                Statement statement = reader.current;
+                if (reader.next()) {
+                    queue.add(reader);
+                }
+                return statement;
+            }, handler);
+        } finally {
+            for (RunReader reader : readers) {
+                IOUtils.closeQuietly(reader.in);
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        for (File run : this.runs) {
+            FileUtils.deleteQuietly(run);
+        }
+        this.runs.clear();
+        this.buffer.clear();
+    }
+
+    private void group(final StatementSource statements, final SubjectHandler handler) throws IOException {
+        String subject = null;
+        List<Set<String>> values = null;
+
+        Statement statement;
+        while ((statement = statements.next()) != null) {
+            if (!statement.subject.equals(subject)) {
+                if (subject != null) {
+                    handler.handle(subject, values);
+                }
+
+                subject = statement.subject;
+                values = new ArrayList<>(this.properties);
+                for (int i = 0; i < this.properties; i++) {
+                    values.add(new LinkedHashSet<>());
+                }
+            }
+
+            values.get(statement.property).add(statement.value);
+        }
+
+        if (subject != null) {
+            handler.handle(subject, values);
+        }
+    }
+
+    private void spill() throws IOException {
+        if (this.buffer.isEmpty()) {
+            return;
+        }
+
+        this.buffer.sort(BY_SUBJECT);
+
+        File run = File.createTempFile("skos-statements", ".run");
+        run.deleteOnExit();
+        this.runs.add(run);
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(run), 1 << 16))) {
+            for (Statement statement : this.buffer) {
+                writeString(out, statement.subject);
+                out.writeByte(statement.property);
+                writeString(out, statement.value);
+            }
+        }
+
+        this.buffer.clear();
+        this.bufferBytes = 0;
+        this.lastSubject = null;
+    }
+
+    // DataOutput.writeUTF is limited to 64 KB, which some literals exceed
+    private static void writeString(final DataOutputStream out, final String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(final DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private interface StatementSource {
+
+        Statement next() throws IOException;
+
+    }
+
+    private static class Statement {
+        final String subject;
+        final int property;
+        final String value;
+
+        Statement(final String subject, final int property, final String value) {
+            this.subject = subject;
+            this.property = property;
+            this.value = value;
+        }
+    }
+
+    private static class RunReader {
+        final DataInputStream in;
+        final int index;
+        Statement current;
+
+        RunReader(final File run, final int index) throws IOException {
+            this.in = new DataInputStream(new BufferedInputStream(new FileInputStream(run), 1 << 16));
+            this.index = index;
+        }
+
+        boolean next() throws IOException {
+            String subject;
+            try {
+                subject = readString(this.in);
+            } catch (EOFException e) {
+                this.current = null;
+                return false;
+            }
+            int property = this.in.readByte();
+            this.current = new Statement(subject, property, readString(this.in));
+            return true;
+        }
+    }
+
+}
@@ -1,35 +1,75 @@
 package br.ufsc.egc.rudger.expertprofiling.stopword;
 
 import java.io.BufferedReader;
+import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.Reader;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.StringJoiner;
+import java.util.concurrent.ConcurrentHashMap;
 
+import org.apache.uima.fit.component.initialize.ConfigurationParameterInitializer;
+import org.apache.uima.fit.descriptor.ConfigurationParameter;
 import org.apache.uima.resource.DataResource;
 import org.apache.uima.resource.ResourceInitializationException;
 import org.apache.uima.resource.SharedResourceObject;
 
+import br.ufsc.egc.rudger.expertprofiling.normalizer.DefaultNormalizer;
+import de.tudarmstadt.ukp.dkpro.core.api.parameter.ComponentParameters;
+import de.tudarmstadt.ukp.dkpro.core.api.resources.ResourceUtils;
+
 /**
- * Used for storing stop words in a HashSet. Can be used as resource object in UIMA. Terms in stop word files are
- * converted to lower case.
+ * Used for storing stop words in an open addressing hash of char arrays. Can be used as resource object in UIMA. Terms
+ * in stop word files are folded by the {@link DefaultNormalizer}, and so are the looked up words while they are
+ * hashed, hence a span of the document text can be tested without creating a string for it.
+ *
+ * The lists are loaded once per JVM through {@link #getShared(List, String)}, which the UIMA resources also use, and
+ * the shared sets are immutable so any engine or thread can read them.
  */
 public class StopWordSet implements SharedResourceObject {
-    
-    private HashSet<String> data;
+
+    /**
+     * The stop word lists loaded by the UIMA resource besides the one of its URL.
+     */
+    public static final String PARAM_ADDITIONAL_LOCATIONS = "additionalLocations";
+    @ConfigurationParameter(name = PARAM_ADDITIONAL_LOCATIONS, mandatory = false)
+    private String[] additionalLocations;
+
+    public static final String PARAM_MODEL_ENCODING = ComponentParameters.PARAM_MODEL_ENCODING;
+    @ConfigurationParameter(name = PARAM_MODEL_ENCODING, mandatory = true, defaultValue = "UTF-8")
+    private String modelEncoding;
+
+    private static final String CLASSPATH_PREFIX = "classpath:";
+
+    private static final int INITIAL_CAPACITY = 256;
+
+    private static final Map<String, StopWordSet> SHARED = new ConcurrentHashMap<>();
+
+    private final DefaultNormalizer normalizer = new DefaultNormalizer();
+
+    private char[][] keys;
+
+    private int size;
+
+    private boolean shared;
 
     public StopWordSet() {
         super();
-        this.data = new HashSet<String>();
+        this.keys = new char[INITIAL_CAPACITY][];
     }
 
     public StopWordSet(final String[] fileNames) throws IOException {
-        super();
-        this.data = new HashSet<String>();
+        this();
         for (String fileName : fileNames) {
             this.addStopWordListFile(fileName);
         }
@@ -38,25 +78,78 @@ public class StopWordSet implements SharedResourceObject {
     /**
      * Loads a text file (UTF-8 encoding!) containing stop words. Only first word in each line will be taken into
      * account. Everything after "|" will be treated as comment.
-     * 
+     *
      * @param fileName the file to read.
      * @throws IOException if the file could not be read.
      */
     public void addStopWordListFile(final String fileName) throws IOException {
         try (Reader reader = new FileReader(fileName)) {
-            this.load(new FileReader(fileName));
+            this.load(reader);
         }
     }
 
+    /**
+     * Returns the set of the given lists, loading them if no engine of the JVM did it yet.
+     */
+    public static StopWordSet getShared(final List<URL> locations, final String encoding) throws IOException {
+        StringJoiner key = new StringJoiner("\n", encoding + "\n", "");
+        for (URL location : locations) {
+            key.add(location.toString());
+        }
+
+        StopWordSet set = SHARED.get(key.toString());
+        if (set == null) {
+            set = new StopWordSet();
+            for (URL location : locations) {
+                try (InputStream is = location.openStream()) {
+                    set.load(is, encoding);
+                }
+            }
+            set.shared = true;
+
+            StopWordSet previous = SHARED.putIfAbsent(key.toString(), set);
+            if (previous != null) {
+                set = previous;
+            }
+        }
+        return set;
+    }
+
     @Override
     public void load(final DataResource dataRes) throws ResourceInitializationException {
-        try (InputStream is = dataRes.getInputStream()) {
-            this.load(is);
+        ConfigurationParameterInitializer.initialize(this, dataRes);
+
+        try {
+            List<URL> locations = new ArrayList<>();
+            // UIMA leaves the URL unset for a path it cannot find, as it does not look into the classpath
+            locations.add(dataRes.getUrl() != null ? dataRes.getUrl() : this.resolveLocation(dataRes.getUri().toString()));
+            if (this.additionalLocations != null) {
+                for (String location : this.additionalLocations) {
+                    locations.add(this.resolveLocation(location));
+                }
+            }
+
+            StopWordSet set = getShared(locations, this.modelEncoding);
+            this.keys = set.keys;
+            this.size = set.size;
+            this.shared = true;
         } catch (IOException e) {
             throw new ResourceInitializationException(e);
         }
     }
 
+    /**
+     * Resolves a location of a stop word list: a URL, a file or else a path in the classpath, such as the default
+     * "stopwords/stopwords_en.txt".
+     */
+    private URL resolveLocation(final String location) throws IOException {
+        try {
+            return ResourceUtils.resolveLocation(location, this, null);
+        } catch (FileNotFoundException e) {
+            return ResourceUtils.resolveLocation(CLASSPATH_PREFIX + location, this, null);
+        }
+    }
+
     public void load(final InputStream aIs) throws IOException {
         this.load(aIs, "UTF-8");
     }
@@ -77,20 +170,115 @@ public class StopWordSet implements SharedResourceObject {
         while ((line = br.readLine()) != null) {
             String[] words = line.trim().split("\\s|\\|");
             if (words.length > 0 && words[0].trim().length() > 0) {
-                this.data.add(words[0].toLowerCase());
+                this.add(words[0]);
             }
         }
     }
 
+    public void add(final String aWord) {
+        if (this.shared) {
+            throw new UnsupportedOperationException("The shared stop word sets are immutable");
+        }
+
+        char[] key = this.normalizer.normalize(aWord.toLowerCase()).toCharArray();
+        int slot = this.findSlot(key);
+        if (this.keys[slot] != null) {
+            return;
+        }
+
+        this.keys[slot] = key;
+        this.size++;
+        if (this.size * 2 > this.keys.length) {
+            this.rehash();
+        }
+    }
+
     public boolean contains(final String aWord) {
-        return this.data.contains(aWord);
+        return this.contains(aWord, 0, aWord.length());
+    }
+
+    /**
+     * Returns whether the folded span of the text is a stop word. No object is created unless the span has characters
+     * that cannot be folded one by one.
+     */
+    public boolean contains(final CharSequence text, final int offset, final int length) {
+        int h = 0;
+        int foldedLength = 0;
+        for (int i = offset; i < offset + length; i++) {
+            int c = DefaultNormalizer.foldChar(text.charAt(i));
+            if (c == DefaultNormalizer.UNFOLDABLE) {
+                String word = this.normalizer.normalize(text.subSequence(offset, offset + length).toString().toLowerCase());
+                return this.keys[this.findSlot(word.toCharArray())] != null;
+            }
+            if (c != DefaultNormalizer.REMOVED) {
+                h = 31 * h + c;
+                foldedLength++;
+            }
+        }
+
+        int mask = this.keys.length - 1;
+        for (int slot = mix(h) & mask; this.keys[slot] != null; slot = slot + 1 & mask) {
+            if (equalsFolded(this.keys[slot], text, offset, length, foldedLength)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public int size() {
+        return this.size;
+    }
+
+    public Set<String> getData() {
+        Set<String> data = new HashSet<>(this.size * 2);
+        for (char[] key : this.keys) {
+            if (key != null) {
+                data.add(new String(key));
+            }
+        }
+        return Collections.unmodifiableSet(data);
     }
-    
-    public int size(){
-        return this.data.size();
+
+    private int findSlot(final char[] key) {
+        int h = 0;
+        for (char c : key) {
+            h = 31 * h + c;
+        }
+
+        int mask = this.keys.length - 1;
+        int slot = mix(h) & mask;
+        while (this.keys[slot] != null && !Arrays.equals(this.keys[slot], key)) {
+            slot = slot + 1 & mask;
+        }
+        return slot;
     }
-    
-    public Set<String> getData(){
-        return Collections.unmodifiableSet(this.data);
+
+    private void rehash() {
+        char[][] oldKeys = this.keys;
+        this.keys = new char[oldKeys.length * 2][];
+        for (char[] key : oldKeys) {
+            if (key != null) {
+                this.keys[this.findSlot(key)] = key;
+            }
+        }
+    }
+
+    private static boolean equalsFolded(final char[] key, final CharSequence text, final int offset, final int length, final int foldedLength) {
+        if (key.length != foldedLength) {
+            return false;
+        }
+        int k = 0;
+        for (int i = offset; i < offset + length; i++) {
+            int c = DefaultNormalizer.foldChar(text.charAt(i));
+            if (c != DefaultNormalizer.REMOVED && key[k++] != c) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int mix(final int h) {
+        int x = h * 0x9E3779B9;
+        return x ^ x >>> 16;
     }
 }
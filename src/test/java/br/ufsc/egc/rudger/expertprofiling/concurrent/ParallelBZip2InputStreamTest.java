@@ -0,0 +1,265 @@
+package br.ufsc.egc.rudger.expertprofiling.concurrent;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorInputStream;
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorOutputStream;
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks the {@link ParallelBZip2InputStream} against the sequential decompression of commons-compress.
+ */
+public class ParallelBZip2InputStreamTest {
+
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() {
+        this.executor = Executors.newFixedThreadPool(4);
+    }
+
+    @After
+    public void tearDown() {
+        this.executor.shutdownNow();
+    }
+
+    private static byte[] compress(final byte[] data, final int blockSize) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (OutputStream out = new BZip2CompressorOutputStream(bytes, blockSize)) {
+            out.write(data);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Text that compresses to about a third of its size, so a block of 100 KB takes several reads of the input
+     */
+    private static byte[] text(final long seed, final int length) {
+        Random random = new Random(seed);
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = (byte) (random.nextInt(8) == 0 ? ' ' : 'a' + random.nextInt(26));
+        }
+        return data;
+    }
+
+    /**
+     * Text made of the bytes whose bitmap in the block header, after the 16 bits telling the used ranges of 16 bytes,
+     * is the given magic number written as the bitmaps of the first three ranges. Runs of 4 equal bytes, which would add
+     * the run length bytes to the bitmap, are avoided.
+     */
+    private static byte[] textWithMagicInBitmap(final long seed, final int length, final long magic) {
+        int[] used = new int[48];
+        int count = 0;
+        for (int i = 0; i < 48; i++) {
+            if ((magic >>> 47 - i & 1) != 0) {
+                used[count++] = i;
+            }
+        }
+
+        Random random = new Random(seed);
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = (byte) used[random.nextInt(count)];
+            if (i >= 3 && data[i] == data[i - 1] && data[i] == data[i - 2] && data[i] == data[i - 3]) {
+                i--;
+            }
+        }
+        // the first bytes hold every used byte, so each block of the input has the same bitmap
+        for (int i = 0; i < count; i++) {
+            data[i] = (byte) used[i];
+        }
+        return data;
+    }
+
+    private static byte[] concat(final byte[]... parts) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (byte[] part : parts) {
+            out.write(part, 0, part.length);
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] sequential(final byte[] compressed) throws IOException {
+        try (InputStream in = new BZip2CompressorInputStream(new ByteArrayInputStream(compressed), true)) {
+            return IOUtils.toByteArray(in);
+        }
+    }
+
+    private byte[] parallel(final InputStream compressed, final int maxInFlight) throws IOException {
+        try (InputStream in = new ParallelBZip2InputStream(compressed, this.executor, maxInFlight)) {
+            return IOUtils.toByteArray(in);
+        }
+    }
+
+    private void assertSameAsSequential(final byte[] compressed) throws IOException {
+        byte[] expected = sequential(compressed);
+        assertArrayEquals(expected, this.parallel(new ByteArrayInputStream(compressed), 4));
+        assertArrayEquals(expected, this.parallel(new ByteArrayInputStream(compressed), 1));
+        assertArrayEquals(expected, this.parallel(new TrickleInputStream(new ByteArrayInputStream(compressed), 42), 4));
+    }
+
+    private static boolean contains(final byte[] data, final long magic) {
+        for (long bit = 0; bit + 48 <= data.length * 8L; bit++) {
+            long value = 0;
+            for (int i = 0; i < 48; i++) {
+                long b = bit + i;
+                value = value << 1 | data[(int) (b >>> 3)] >>> 7 - (b & 7) & 1;
+            }
+            if (value == magic) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Test(timeout = 60000)
+    public void testSingleStream() throws IOException {
+        this.assertSameAsSequential(compress(text(1, 500000), 1));
+        this.assertSameAsSequential(compress(text(2, 100), 9));
+        this.assertSameAsSequential(compress(new byte[0], 9));
+    }
+
+    @Test(timeout = 60000)
+    public void testConcatenatedStreams() throws IOException {
+        byte[] compressed = concat(compress(text(1, 250000), 1), compress(new byte[0], 9), compress(text(2, 10), 9), compress(text(3, 150000), 2));
+        this.assertSameAsSequential(compressed);
+    }
+
+    @Test(timeout = 60000)
+    public void testBlocksStraddlingReads() throws IOException {
+        // the blocks of about 30 KB end at every offset of the 64 KB reads and of the small reads of the trickle
+        byte[] compressed = compress(text(4, 2000000), 1);
+        assertTrue(compressed.length > 4 * 65536);
+        this.assertSameAsSequential(compressed);
+    }
+
+    @Test(timeout = 60000)
+    public void testBlockMagicInsideBlock() throws IOException {
+        byte[] compressed = compress(textWithMagicInBitmap(5, 300000, 0x314159265359L), 1);
+        // the magic of the 3 blocks and the ones of their bitmaps
+        assertTrue(contains(Arrays.copyOfRange(compressed, 4 + 6, 4 + 40), 0x314159265359L));
+        this.assertSameAsSequential(compressed);
+        this.assertSameAsSequential(concat(compressed, compressed));
+    }
+
+    @Test(timeout = 60000)
+    public void testEndOfStreamMagicInsideBlock() throws IOException {
+        byte[] compressed = compress(textWithMagicInBitmap(6, 300000, 0x177245385090L), 1);
+        assertTrue(contains(Arrays.copyOfRange(compressed, 4 + 6, 4 + 40), 0x177245385090L));
+        this.assertSameAsSequential(compressed);
+        this.assertSameAsSequential(concat(compressed, compress(text(7, 1000), 9)));
+    }
+
+    @Test(timeout = 120000)
+    public void testTruncatedInput() throws IOException {
+        byte[] first = compress(text(8, 30000), 1);
+        byte[] compressed = concat(first, compress(text(9, 30000), 1));
+        for (int length = 4; length < compressed.length; length++) {
+            // every length near the headers and the ends of the streams and some of the others, the first stream alone
+            // being a whole input
+            boolean nearEnd = length < 64 || Math.abs(first.length - length) < 64 || compressed.length - length < 64;
+            if (!nearEnd && length % 97 != 0 || length == first.length) {
+                continue;
+            }
+            byte[] truncated = Arrays.copyOf(compressed, length);
+            try {
+                this.parallel(new ByteArrayInputStream(truncated), 4);
+                fail("Truncated to " + length + " of " + compressed.length + " bytes");
+            } catch (IOException e) {
+                // expected
+            }
+        }
+    }
+
+    @Test(timeout = 120000)
+    public void testCorruptInput() throws IOException {
+        byte[] first = compress(text(10, 200000), 1);
+        byte[] compressed = concat(first, compress(text(11, 30000), 1));
+        Random random = new Random(12);
+        int detected = 0;
+        for (int i = 0; i < 200; i++) {
+            byte[] corrupt = compressed.clone();
+            int position = 4 + random.nextInt(corrupt.length - 4);
+            corrupt[position] ^= 1 << random.nextInt(8);
+
+            try {
+                sequential(corrupt);
+                // a change of the padding bits or of the block size of the second stream is not an error
+                continue;
+            } catch (IOException | RuntimeException e) {
+                detected++;
+            }
+            try {
+                this.parallel(new ByteArrayInputStream(corrupt), 4);
+                fail("Corruption of byte " + position + " not detected");
+            } catch (IOException e) {
+                // expected
+            }
+        }
+        assertTrue(detected > 190);
+    }
+
+    @Test(timeout = 60000)
+    public void testCorruptStreamCrc() throws IOException {
+        byte[] first = compress(text(13, 250000), 1);
+        byte[] second = compress(text(14, 1000), 9);
+        for (byte[] compressed : new byte[][] { first, concat(first, second) }) {
+            // the combined CRC of the first stream ends 1 to 2 bytes before its end
+            byte[] corrupt = compressed.clone();
+            corrupt[first.length - 2] ^= 0x10;
+            try {
+                this.parallel(new ByteArrayInputStream(corrupt), 4);
+                fail("Corrupt stream CRC not detected");
+            } catch (IOException e) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void testNotBZip2() {
+        try {
+            this.parallel(new ByteArrayInputStream("BZ".getBytes()), 4);
+            fail("Not detected");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    /**
+     * Returns the input in reads of a few random bytes
+     */
+    private static class TrickleInputStream extends FilterInputStream {
+
+        private final Random random;
+
+        TrickleInputStream(final InputStream in, final long seed) {
+            super(in);
+            this.random = new Random(seed);
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) throws IOException {
+            return super.read(b, off, Math.min(len, 1 + this.random.nextInt(4096)));
+        }
+
+    }
+
+}
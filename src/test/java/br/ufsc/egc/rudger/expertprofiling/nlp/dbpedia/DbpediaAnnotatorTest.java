@@ -0,0 +1,161 @@
+package br.ufsc.egc.rudger.expertprofiling.nlp.dbpedia;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.uima.analysis_engine.AnalysisEngine;
+import org.apache.uima.fit.factory.AnalysisEngineFactory;
+import org.apache.uima.fit.util.JCasUtil;
+import org.apache.uima.jcas.JCas;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import br.ufsc.egc.rudger.expertprofiling.nlp.types.DbpediaCategory;
+import br.ufsc.egc.rudger.expertprofiling.skoslucene.ConceptDictionary;
+import de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Sentence;
+import de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Token;
+
+/**
+ * Builds the DBpedia index of small dumps, annotates texts with it and checks the concepts found across the reopening
+ * and the updates of the index.
+ */
+public class DbpediaAnnotatorTest {
+
+    private static final String LONG_LABEL = "history of the philosophy of science and of the science of philosophy";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private String indexPath;
+
+    @Before
+    public void setUp() {
+        this.indexPath = new File(this.folder.getRoot(), "dbpedia_index").getAbsolutePath();
+    }
+
+    private static String label(final String subject, final String label) {
+        return "<http://dbpedia.org/resource/Category:" + subject + "> <http://www.w3.org/2004/02/skos/core#prefLabel> \"" + label + "\"@en .\n";
+    }
+
+    private static String uri(final String name) {
+        return "http://dbpedia.org/resource/Category:" + name;
+    }
+
+    /**
+     * Writes a dump under the given directory of the test folder, returning its URL
+     */
+    private String dump(final String dir, final String statements) throws IOException {
+        File file = new File(this.folder.newFolder(dir), "skos_categories_en.ttl");
+        Files.write(file.toPath(), statements.getBytes(StandardCharsets.UTF_8));
+        return file.toURI().toString();
+    }
+
+    private AnalysisEngine createEngine(final String[] links, final String... updateLinks) throws Exception {
+        return AnalysisEngineFactory.createEngine(DbpediaAnnotator.class, DbpediaAnnotator.PARAM_DBPEDIA_LINKS, links,
+                DbpediaAnnotator.PARAM_DBPEDIA_INDEX_PATH, this.indexPath, DbpediaAnnotator.PARAM_DBPEDIA_UPDATE_LINKS, updateLinks,
+                DbpediaAnnotator.PARAM_NUM_THREADS, 2);
+    }
+
+    /**
+     * Annotates a sentence of space separated tokens, returning each category found as its covered text and the URI
+     * its registry id resolves to
+     */
+    private List<String> annotate(final AnalysisEngine engine, final String text) throws Exception {
+        JCas jCas = engine.newJCas();
+        jCas.setDocumentText(text);
+        jCas.setDocumentLanguage("en");
+        int begin = 0;
+        for (String token : text.split(" ")) {
+            new Token(jCas, begin, begin + token.length()).addToIndexes();
+            begin += token.length() + 1;
+        }
+        new Sentence(jCas, 0, text.length()).addToIndexes();
+        engine.process(jCas);
+
+        List<String> categories = new ArrayList<>();
+        try (Directory dir = FSDirectory.open(DbpediaAnnotator.getConceptIdDirectory(this.indexPath).toPath());
+                ConceptDictionary registry = ConceptDictionary.open(dir)) {
+            for (DbpediaCategory category : JCasUtil.select(jCas, DbpediaCategory.class)) {
+                categories.add(category.getCoveredText() + "=" + registry.getUri(category.getConceptId()));
+            }
+        }
+        return categories;
+    }
+
+    /**
+     * Returns the stored maximum number of tokens of the labels of the index, the only one of the test folder
+     */
+    private String readMaxTokens() throws IOException {
+        File registry = DbpediaAnnotator.getConceptIdDirectory(this.indexPath);
+        File[] indexes = this.folder.getRoot().listFiles(file -> file.getName().startsWith("dbpedia_index_") && !file.equals(registry));
+        assertEquals(1, indexes.length);
+
+        Properties props = new Properties();
+        try (InputStream in = new FileInputStream(new File(indexes[0], "conf.properties"))) {
+            props.load(in);
+        }
+        return props.getProperty("maxTokens");
+    }
+
+    private static void destroy(final AnalysisEngine engine) throws Exception {
+        engine.collectionProcessComplete();
+        engine.destroy();
+    }
+
+    @Test
+    public void testLongLabelAfterReopening() throws Exception {
+        String[] links = { this.dump("dumps", label("Long", LONG_LABEL) + label("Science", "science")) };
+        String text = "science and the " + LONG_LABEL;
+
+        // built from the dump, then opened with the maximum label length read from its configuration
+        for (int i = 0; i < 2; i++) {
+            AnalysisEngine engine = this.createEngine(links);
+            try {
+                assertEquals(Arrays.asList("science=" + uri("Science"), LONG_LABEL + "=" + uri("Long")), this.annotate(engine, text));
+                assertEquals("12", this.readMaxTokens());
+            } finally {
+                destroy(engine);
+            }
+        }
+    }
+
+    @Test
+    public void testUpdateKeepsTheConceptIds() throws Exception {
+        String[] links = { this.dump("dumps", label("Long", LONG_LABEL) + label("Science", "science")) };
+        String text = "science and art of the " + LONG_LABEL;
+
+        AnalysisEngine engine = this.createEngine(links);
+        try {
+            assertEquals(Arrays.asList("science=" + uri("Science"), LONG_LABEL + "=" + uri("Long")), this.annotate(engine, text));
+        } finally {
+            destroy(engine);
+        }
+
+        // the update of the same file name deletes the long label and adds a concept
+        String update = this.dump("updates", label("Science", "science") + label("Art", "art"));
+        engine = this.createEngine(links, update);
+        try {
+            // the words of the long label are now matched on their own
+            String science = "science=" + uri("Science");
+            assertEquals(Arrays.asList(science, "art=" + uri("Art"), science, science), this.annotate(engine, text));
+            assertEquals("1", this.readMaxTokens());
+        } finally {
+            destroy(engine);
+        }
+    }
+
+}
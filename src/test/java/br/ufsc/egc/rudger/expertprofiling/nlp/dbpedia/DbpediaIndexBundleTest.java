@@ -0,0 +1,183 @@
+package br.ufsc.egc.rudger.expertprofiling.nlp.dbpedia;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Properties;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Exports, verifies and imports a DBpedia index bundle, and checks that tampered bundles are rejected.
+ */
+public class DbpediaIndexBundleTest {
+
+    private static final String[] FILES = { "en/conf.properties", "en/segments_1", "en/labels_1.fst", "pt/conf.properties", "pt/segments_1" };
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File index;
+
+    @Before
+    public void setUp() throws IOException {
+        this.index = new File(this.folder.getRoot(), "dbpedia_index_0123");
+        Random random = new Random(42);
+        for (String file : FILES) {
+            File target = new File(this.index, file);
+            target.getParentFile().mkdirs();
+            if (file.endsWith("conf.properties")) {
+                Properties conf = new Properties();
+                conf.put("maxTokens", "7");
+                conf.put(DbpediaAnnotator.TRANSITIVE_CLOSURE_DEPTH, "2");
+                conf.put(DbpediaAnnotator.BLOOM_FILTER_FPP, "0.01");
+                try (OutputStream out = new FileOutputStream(target)) {
+                    conf.store(out, null);
+                }
+            } else {
+                byte[] bytes = new byte[1000 + random.nextInt(100000)];
+                random.nextBytes(bytes);
+                Files.write(target.toPath(), bytes);
+            }
+        }
+        // left out of the bundle
+        new File(this.index, "en/write.lock").createNewFile();
+    }
+
+    private void assertSameFiles(final File copy) throws IOException {
+        for (String file : FILES) {
+            assertArrayEquals(file, Files.readAllBytes(new File(this.index, file).toPath()), Files.readAllBytes(new File(copy, file).toPath()));
+        }
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        File bundleDir = new File(this.folder.getRoot(), "bundle");
+        DbpediaIndexBundle.export(this.index, bundleDir);
+        assertFalse(new File(bundleDir, "en/write.lock").exists());
+
+        DbpediaIndexBundle bundle = DbpediaIndexBundle.open(bundleDir);
+        assertEquals("dbpedia_index_0123", bundle.getIndexName());
+        assertTrue(bundle.hasSettings(2, 0.01f));
+        assertFalse(bundle.hasSettings(0, 0.01f));
+        assertFalse(bundle.hasSettings(2, 0.1f));
+        bundle.verify();
+
+        File imported = new File(this.folder.getRoot(), "imported");
+        bundle.importTo(imported);
+        this.assertSameFiles(imported);
+
+        try {
+            bundle.importTo(imported);
+            fail("Imported into an existing directory");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testSettingsOfDifferentPartitions() throws IOException {
+        File conf = new File(this.index, "pt/conf.properties");
+        Properties props = new Properties();
+        props.put(DbpediaAnnotator.TRANSITIVE_CLOSURE_DEPTH, "3");
+        props.put(DbpediaAnnotator.BLOOM_FILTER_FPP, "0.01");
+        try (OutputStream out = new FileOutputStream(conf)) {
+            props.store(out, null);
+        }
+
+        File bundleDir = new File(this.folder.getRoot(), "bundle");
+        DbpediaIndexBundle.export(this.index, bundleDir);
+        assertFalse(DbpediaIndexBundle.open(bundleDir).hasSettings(2, 0.01f));
+        assertFalse(DbpediaIndexBundle.open(bundleDir).hasSettings(3, 0.01f));
+    }
+
+    @Test
+    public void testTamperedFile() throws IOException {
+        File bundleDir = new File(this.folder.getRoot(), "bundle");
+        DbpediaIndexBundle.export(this.index, bundleDir);
+
+        // the same size, so only the digest tells the change
+        File tampered = new File(bundleDir, "en/labels_1.fst");
+        byte[] bytes = Files.readAllBytes(tampered.toPath());
+        bytes[bytes.length / 2] ^= 1;
+        Files.write(tampered.toPath(), bytes);
+
+        DbpediaIndexBundle bundle = DbpediaIndexBundle.open(bundleDir);
+        bundle.checkSizes();
+        try {
+            bundle.verify();
+            fail("Tampered file verified");
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("en/labels_1.fst"));
+        }
+
+        File imported = new File(this.folder.getRoot(), "imported");
+        try {
+            bundle.importTo(imported);
+            fail("Tampered file imported");
+        } catch (IOException e) {
+            // expected
+        }
+        assertFalse(imported.exists());
+        assertFalse(new File(imported.getAbsolutePath() + "_import").exists());
+    }
+
+    @Test
+    public void testMissingFile() throws IOException {
+        File bundleDir = new File(this.folder.getRoot(), "bundle");
+        DbpediaIndexBundle.export(this.index, bundleDir);
+        assertTrue(new File(bundleDir, "pt/segments_1").delete());
+
+        try {
+            DbpediaIndexBundle.open(bundleDir).checkSizes();
+            fail("Missing file not detected");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testPathsOutsideOfTheBundle() throws IOException {
+        File bundleDir = new File(this.folder.getRoot(), "bundle");
+        DbpediaIndexBundle.export(this.index, bundleDir);
+        File manifest = new File(bundleDir, DbpediaIndexBundle.MANIFEST_FILE_NAME);
+        Properties props = new Properties();
+        try (InputStream in = new FileInputStream(manifest)) {
+            props.load(in);
+        }
+
+        String entry = props.getProperty("file.en/segments_1");
+        for (String path : Arrays.asList("../evil", "en/../../evil", "/tmp/evil", "en//segments_1", "./en/segments_1", "en\\..\\..\\evil", "C:/evil", "")) {
+            Properties tampered = new Properties();
+            tampered.putAll(props);
+            tampered.put("file." + path, entry);
+            try (OutputStream out = new FileOutputStream(manifest)) {
+                tampered.store(out, null);
+            }
+
+            try {
+                DbpediaIndexBundle.open(bundleDir);
+                fail("Path '" + path + "' accepted");
+            } catch (IOException e) {
+                // expected
+            }
+        }
+        assertFalse(new File(this.folder.getRoot(), "evil").exists());
+    }
+
+}
@@ -0,0 +1,94 @@
+package br.ufsc.egc.rudger.expertprofiling.normalizer;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Locale;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Checks the folding table of the {@link DefaultNormalizer} against the normalization it replaced.
+ */
+public class DefaultNormalizerTest {
+
+    private final DefaultNormalizer normalizer = new DefaultNormalizer();
+
+    /**
+     * The normalization before the folding table: NFD, removal of the non ASCII characters and lower case.
+     */
+    private static String reference(final String value) {
+        String text = java.text.Normalizer.normalize(value, java.text.Normalizer.Form.NFD);
+        text = text.replaceAll("[^\\p{ASCII}]", "");
+
+        return text.toLowerCase();
+    }
+
+    @Test
+    public void testEveryCharacterOfTheBmp() {
+        for (int c = 0; c <= Character.MAX_VALUE; c++) {
+            String value = String.valueOf((char) c);
+            String expected = reference(value);
+            assertEquals("U+" + Integer.toHexString(c), expected, this.normalizer.normalize(value));
+
+            StringBuilder out = new StringBuilder("x");
+            this.normalizer.normalize(value, out);
+            assertEquals("U+" + Integer.toHexString(c), "x" + expected, out.toString());
+
+            int folded = DefaultNormalizer.foldChar((char) c);
+            if (folded == DefaultNormalizer.REMOVED) {
+                assertEquals("U+" + Integer.toHexString(c), "", expected);
+            } else if (folded != DefaultNormalizer.UNFOLDABLE) {
+                assertEquals("U+" + Integer.toHexString(c), String.valueOf((char) folded), expected);
+            }
+        }
+    }
+
+    @Test
+    public void testRandomTexts() {
+        // mostly Latin, with combining marks, other scripts and surrogate pairs
+        char[][] ranges = { { 0x20, 0x7e }, { 0xa0, 0x24f }, { 0x300, 0x36f }, { 0x370, 0x52f }, { 0x1e00, 0x1eff }, { 0xfb00, 0xfb4f },
+                { 0xff00, 0xffef } };
+        Random random = new Random(42);
+        for (int i = 0; i < 100000; i++) {
+            StringBuilder text = new StringBuilder();
+            int length = random.nextInt(20);
+            for (int j = 0; j < length; j++) {
+                if (random.nextInt(50) == 0) {
+                    text.appendCodePoint(0x10000 + random.nextInt(0x10000));
+                } else {
+                    char[] range = ranges[random.nextInt(ranges.length)];
+                    text.append((char) (range[0] + random.nextInt(range[1] - range[0] + 1)));
+                }
+            }
+
+            String value = text.toString();
+            assertEquals(value, reference(value), this.normalizer.normalize(value));
+
+            StringBuilder out = new StringBuilder();
+            this.normalizer.normalize(value, out);
+            assertEquals(value, reference(value), out.toString());
+        }
+    }
+
+    @Test
+    public void testTurkicLocales() {
+        Locale locale = Locale.getDefault();
+        try {
+            for (String language : new String[] { "tr", "az" }) {
+                Locale.setDefault(new Locale(language));
+                for (String value : new String[] { "I", "ISTANBUL", "İstanbul", "ıi", "Çağ" }) {
+                    assertEquals(value, reference(value), this.normalizer.normalize(value));
+
+                    StringBuilder out = new StringBuilder();
+                    this.normalizer.normalize(value, out);
+                    assertEquals(value, reference(value), out.toString());
+                }
+                assertEquals(DefaultNormalizer.UNFOLDABLE, DefaultNormalizer.foldChar('I'));
+            }
+        } finally {
+            Locale.setDefault(locale);
+        }
+    }
+
+}
@@ -0,0 +1,261 @@
+package br.ufsc.egc.rudger.expertprofiling.skoslucene;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.lucene.analysis.core.KeywordAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.RAMDirectory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import br.ufsc.egc.rudger.expertprofiling.skoslucene.ConceptGraph.Relation;
+
+/**
+ * Writes the concept graph of small in-memory indexes and checks the closures of the hierarchy.
+ */
+public class ConceptGraphTest implements LuceneIndexFields {
+
+    private static final long GENERATION = 1;
+
+    private Directory dir;
+
+    private IndexWriter writer;
+
+    /**
+     * The concept id of each concept name, in the order the concepts were added
+     */
+    private final Map<String, Integer> ids = new HashMap<>();
+
+    @Before
+    public void setUp() throws IOException {
+        this.dir = new RAMDirectory();
+        this.writer = new IndexWriter(this.dir, new IndexWriterConfig(new KeywordAnalyzer()));
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        this.writer.close();
+        this.dir.close();
+    }
+
+    /**
+     * Adds a concept with its broader concepts
+     */
+    private void addConcept(final String name, final String... broader) throws IOException {
+        Document document = new Document();
+        document.add(new StringField(FIELD_URI, name, Field.Store.NO));
+        for (String target : broader) {
+            document.add(new StringField(FIELD_BROADER, target, Field.Store.NO));
+        }
+        this.ids.put(name, this.ids.size());
+        this.writer.addDocument(document);
+    }
+
+    private void addConcept(final String name, final String[] broader, final String[] broaderTransitive) throws IOException {
+        Document document = new Document();
+        document.add(new StringField(FIELD_URI, name, Field.Store.NO));
+        for (String target : broader) {
+            document.add(new StringField(FIELD_BROADER, target, Field.Store.NO));
+        }
+        for (String target : broaderTransitive) {
+            document.add(new StringField(FIELD_BROADER_TRANSITIVE, target, Field.Store.NO));
+        }
+        this.ids.put(name, this.ids.size());
+        this.writer.addDocument(document);
+    }
+
+    private ConceptGraph write(final int depth, final ConceptGraph.WriteStatistics[] statistics) throws IOException {
+        // a single segment, so the document ids are the order of the concepts
+        this.writer.commit();
+        try (DirectoryReader reader = DirectoryReader.open(this.dir)) {
+            statistics[0] = ConceptGraph.write(reader, this.dir, GENERATION, depth);
+        }
+        return ConceptGraph.open(this.dir, GENERATION);
+    }
+
+    private int[] ids(final String... names) {
+        int[] result = new int[names.length];
+        for (int i = 0; i < names.length; i++) {
+            result[i] = this.ids.get(names[i]);
+        }
+        return result;
+    }
+
+    private void assertTargets(final ConceptGraph graph, final Relation relation, final String concept, final String... expected) throws IOException {
+        assertArrayEquals(relation + " of " + concept, this.ids(expected), graph.getTargets(relation, this.ids.get(concept)));
+    }
+
+    @Test
+    public void testDiamond() throws IOException {
+        // A is under B and C, both under D
+        this.addConcept("A", "B", "C");
+        this.addConcept("B", "D");
+        this.addConcept("C", "D");
+        this.addConcept("D");
+
+        ConceptGraph.WriteStatistics[] statistics = new ConceptGraph.WriteStatistics[1];
+        try (ConceptGraph graph = this.write(0, statistics)) {
+            assertEquals(4, graph.size());
+            assertEquals(0, graph.getTransitiveDepth());
+            this.assertTargets(graph, Relation.BROADER, "A", "B", "C");
+            this.assertTargets(graph, Relation.BROADER, "D");
+            this.assertTargets(graph, Relation.BROADER_TRANSITIVE, "A");
+        }
+
+        try (ConceptGraph graph = this.write(1, statistics)) {
+            this.assertTargets(graph, Relation.BROADER_TRANSITIVE, "A", "B", "C");
+            this.assertTargets(graph, Relation.BROADER_TRANSITIVE, "B", "D");
+        }
+
+        try (ConceptGraph graph = this.write(2, statistics)) {
+            // D is reached through B and C, and listed once
+            this.assertTargets(graph, Relation.BROADER_TRANSITIVE, "A", "B", "C", "D");
+            this.assertTargets(graph, Relation.BROADER_TRANSITIVE, "D");
+            assertEquals(0, statistics[0].cyclicConcepts);
+            assertEquals(0, statistics[0].missingEdges);
+            assertEquals(5, statistics[0].transitiveEdges);
+        }
+    }
+
+    @Test
+    public void testDepthLimits() throws IOException {
+        // a chain A < B < C < D, with a stated transitive edge from A to D
+        this.addConcept("A", new String[] { "B" }, new String[] { "D" });
+        this.addConcept("B", "C");
+        this.addConcept("C", "D");
+        this.addConcept("D");
+
+        ConceptGraph.WriteStatistics[] statistics = new ConceptGraph.WriteStatistics[1];
+        try (ConceptGraph graph = this.write(0, statistics)) {
+            this.assertTargets(graph, Relation.BROADER_TRANSITIVE, "A", "D");
+            this.assertTargets(graph, Relation.BROADER_TRANSITIVE, "B");
+        }
+        try (ConceptGraph graph = this.write(1, statistics)) {
+            this.assertTargets(graph, Relation.BROADER_TRANSITIVE, "A", "B", "D");
+            this.assertTargets(graph, Relation.BROADER_TRANSITIVE, "B", "C");
+        }
+        try (ConceptGraph graph = this.write(2, statistics)) {
+            this.assertTargets(graph, Relation.BROADER_TRANSITIVE, "A", "B", "C", "D");
+            this.assertTargets(graph, Relation.BROADER_TRANSITIVE, "B", "C", "D");
+            this.assertTargets(graph, Relation.BROADER_TRANSITIVE, "C", "D");
+        }
+        try (ConceptGraph graph = this.write(Integer.MAX_VALUE, statistics)) {
+            this.assertTargets(graph, Relation.BROADER_TRANSITIVE, "A", "B", "C", "D");
+            this.assertTargets(graph, Relation.BROADER, "A", "B");
+        }
+    }
+
+    @Test
+    public void testCycle() throws IOException {
+        // A < B < C < A, and D under A
+        this.addConcept("A", "B");
+        this.addConcept("B", "C");
+        this.addConcept("C", "A");
+        this.addConcept("D", "A");
+
+        ConceptGraph.WriteStatistics[] statistics = new ConceptGraph.WriteStatistics[1];
+        try (ConceptGraph graph = this.write(2, statistics)) {
+            this.assertTargets(graph, Relation.BROADER_TRANSITIVE, "A", "B", "C");
+            // the walks of depth 2 do not get back to their concept yet
+            assertEquals(0, statistics[0].cyclicConcepts);
+        }
+
+        try (ConceptGraph graph = this.write(3, statistics)) {
+            // each concept of the cycle reaches itself, and is left out of its own closure
+            this.assertTargets(graph, Relation.BROADER_TRANSITIVE, "A", "B", "C");
+            this.assertTargets(graph, Relation.BROADER_TRANSITIVE, "B", "A", "C");
+            this.assertTargets(graph, Relation.BROADER_TRANSITIVE, "D", "A", "B", "C");
+            assertEquals(3, statistics[0].cyclicConcepts);
+        }
+
+        try (ConceptGraph graph = this.write(Integer.MAX_VALUE, statistics)) {
+            this.assertTargets(graph, Relation.BROADER_TRANSITIVE, "C", "A", "B");
+            this.assertTargets(graph, Relation.BROADER_TRANSITIVE, "D", "A", "B", "C");
+            assertEquals(3, statistics[0].cyclicConcepts);
+            assertEquals(9, statistics[0].transitiveEdges);
+        }
+    }
+
+    @Test
+    public void testSelfLoop() throws IOException {
+        this.addConcept("A", "A", "B");
+        this.addConcept("B");
+
+        ConceptGraph.WriteStatistics[] statistics = new ConceptGraph.WriteStatistics[1];
+        try (ConceptGraph graph = this.write(1, statistics)) {
+            // the stated edge is kept, the closure leaves the concept out
+            this.assertTargets(graph, Relation.BROADER, "A", "A", "B");
+            this.assertTargets(graph, Relation.BROADER_TRANSITIVE, "A", "B");
+            assertEquals(1, statistics[0].cyclicConcepts);
+        }
+    }
+
+    @Test
+    public void testDeletedConceptAndMissingTargets() throws IOException {
+        // A < B < C, A also under the resource X that is not a concept
+        this.addConcept("A", "B", "X");
+        this.addConcept("B", "C");
+        this.addConcept("C");
+        this.writer.commit();
+        this.writer.deleteDocuments(new Term(FIELD_URI, "B"));
+
+        ConceptGraph.WriteStatistics[] statistics = new ConceptGraph.WriteStatistics[1];
+        try (ConceptGraph graph = this.write(Integer.MAX_VALUE, statistics)) {
+            // the ids of the deleted documents are kept, with no edges
+            assertEquals(3, graph.size());
+            this.assertTargets(graph, Relation.BROADER, "A");
+            this.assertTargets(graph, Relation.BROADER, "B");
+            this.assertTargets(graph, Relation.BROADER_TRANSITIVE, "A");
+            // A to B and A to X
+            assertEquals(2, statistics[0].missingEdges);
+        }
+
+        assertArrayEquals(new int[0], this.openAndGet(Relation.BROADER, -1));
+        assertArrayEquals(new int[0], this.openAndGet(Relation.BROADER, 3));
+    }
+
+    private int[] openAndGet(final Relation relation, final int conceptId) throws IOException {
+        try (ConceptGraph graph = ConceptGraph.open(this.dir, GENERATION)) {
+            return graph.getTargets(relation, conceptId);
+        }
+    }
+
+    @Test
+    public void testNarrowerClosure() throws IOException {
+        this.addNarrower("D", "B", "C");
+        this.addNarrower("B", "A");
+        this.addNarrower("C", "A");
+        this.addNarrower("A");
+
+        ConceptGraph.WriteStatistics[] statistics = new ConceptGraph.WriteStatistics[1];
+        try (ConceptGraph graph = this.write(2, statistics)) {
+            this.assertTargets(graph, Relation.NARROWER, "D", "B", "C");
+            this.assertTargets(graph, Relation.NARROWER_TRANSITIVE, "D", "B", "C", "A");
+            this.assertTargets(graph, Relation.BROADER_TRANSITIVE, "A");
+        }
+    }
+
+    private void addNarrower(final String name, final String... narrower) throws IOException {
+        Document document = new Document();
+        document.add(new StringField(FIELD_URI, name, Field.Store.NO));
+        for (String target : narrower) {
+            document.add(new StringField(FIELD_NARROWER, target, Field.Store.NO));
+        }
+        this.ids.put(name, this.ids.size());
+        this.writer.addDocument(document);
+    }
+
+}
@@ -0,0 +1,138 @@
+package br.ufsc.egc.rudger.expertprofiling.skoslucene;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+
+import org.apache.lucene.analysis.core.KeywordAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.SortedDocValuesField;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexOutput;
+import org.apache.lucene.store.RAMDirectory;
+import org.apache.lucene.util.BytesRef;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Assigns the registry ids of small in-memory indexes and checks that the ids are kept across the rebuilds of the
+ * indexes and the reopening of the registry.
+ */
+public class ConceptIdRegistryTest implements LuceneIndexFields {
+
+    private Directory registry;
+
+    @Before
+    public void setUp() {
+        this.registry = new RAMDirectory();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        this.registry.close();
+    }
+
+    /**
+     * Writes an index of the given concepts, in document id order, deleting the given ones after the commit
+     */
+    private static Directory index(final String[] concepts, final String... deleted) throws IOException {
+        Directory dir = new RAMDirectory();
+        try (IndexWriter writer = new IndexWriter(dir, new IndexWriterConfig(new KeywordAnalyzer()))) {
+            for (String concept : concepts) {
+                Document document = new Document();
+                document.add(new StringField(FIELD_URI, concept, Field.Store.NO));
+                document.add(new SortedDocValuesField(FIELD_URI, new BytesRef(concept)));
+                writer.addDocument(document);
+            }
+            writer.commit();
+            for (String concept : deleted) {
+                writer.deleteDocuments(new Term(FIELD_URI, concept));
+            }
+        }
+        return dir;
+    }
+
+    private int[] assign(final String[] concepts, final String... deleted) throws IOException {
+        try (Directory dir = index(concepts, deleted); DirectoryReader reader = DirectoryReader.open(dir)) {
+            return ConceptIdRegistry.assign(this.registry, reader);
+        }
+    }
+
+    private void assertUris(final String... expected) throws IOException {
+        try (ConceptDictionary dictionary = ConceptDictionary.open(this.registry)) {
+            assertEquals(expected.length, dictionary.size());
+            for (int id = 0; id < expected.length; id++) {
+                assertEquals(expected[id], dictionary.getUri(id));
+            }
+            assertNull(dictionary.getUri(-1));
+            assertNull(dictionary.getUri(expected.length));
+        }
+    }
+
+    @Test
+    public void testIdsKeptAcrossRebuilds() throws IOException {
+        assertFalse(ConceptDictionary.exists(this.registry));
+        assertArrayEquals(new int[] { 0, 1, 2 }, this.assign(new String[] { "A", "B", "C" }));
+        assertTrue(ConceptDictionary.exists(this.registry));
+        this.assertUris("A", "B", "C");
+
+        // the rebuilt index has other document ids, a new concept and a deleted one
+        assertArrayEquals(new int[] { 2, 3, 0, -1 }, this.assign(new String[] { "C", "D", "A", "B" }, "B"));
+        this.assertUris("A", "B", "C", "D");
+
+        // the same index again registers nothing
+        assertArrayEquals(new int[] { 2, 3, 0, -1 }, this.assign(new String[] { "C", "D", "A", "B" }, "B"));
+        this.assertUris("A", "B", "C", "D");
+
+        // the concept deleted before keeps its id when it comes back
+        assertArrayEquals(new int[] { 4, 1 }, this.assign(new String[] { "E", "B" }));
+        this.assertUris("A", "B", "C", "D", "E");
+    }
+
+    @Test
+    public void testIndexesSharingTheRegistry() throws IOException {
+        // the partitions of two languages, with a concept in both
+        assertArrayEquals(new int[] { 0, 1 }, this.assign(new String[] { "en/A", "B" }));
+        assertArrayEquals(new int[] { 2, 1 }, this.assign(new String[] { "pt/A", "B" }));
+        this.assertUris("en/A", "B", "pt/A");
+    }
+
+    @Test
+    public void testInterruptedAppend() throws IOException {
+        this.assign(new String[] { "A" });
+
+        // the files of an append that did not get to rename them
+        for (String file : new String[] { ConceptDictionary.OFFSETS_FILE_NAME + ".pending", ConceptDictionary.URIS_FILE_NAME + ".pending" }) {
+            try (IndexOutput out = this.registry.createOutput(file, IOContext.DEFAULT)) {
+                out.writeInt(42);
+            }
+        }
+        this.assertUris("A");
+
+        assertArrayEquals(new int[] { 1, 0 }, this.assign(new String[] { "B", "A" }));
+        this.assertUris("A", "B");
+    }
+
+    @Test
+    public void testEmptyIndexAndUnknownDeletedConcept() throws IOException {
+        assertArrayEquals(new int[0], this.assign(new String[0]));
+        assertFalse(ConceptDictionary.exists(this.registry));
+
+        // a deleted concept not known yet is not registered
+        assertArrayEquals(new int[] { -1, 0 }, this.assign(new String[] { "A", "B" }, "A"));
+        this.assertUris("B");
+    }
+
+}
@@ -0,0 +1,164 @@
+package br.ufsc.egc.rudger.expertprofiling.skoslucene;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import br.ufsc.egc.rudger.expertprofiling.normalizer.DefaultNormalizer;
+
+/**
+ * Indexes small SKOS models and checks what the accessors of the {@link SkosEngineImpl} return.
+ */
+public class SkosEngineImplTest {
+
+    private static final String SKOS = "http://www.w3.org/2004/02/skos/core#";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    static String statement(final String subject, final String property, final String object) {
+        return "<http://dbpedia.org/resource/Category:" + subject + "> <" + SKOS + property + "> <http://dbpedia.org/resource/Category:" + object
+                + "> .\n";
+    }
+
+    static String label(final String subject, final String label) {
+        return "<http://dbpedia.org/resource/Category:" + subject + "> <" + SKOS + "prefLabel> \"" + label + "\"@en .\n";
+    }
+
+    static String uri(final String name) {
+        return "http://dbpedia.org/resource/Category:" + name;
+    }
+
+    private SkosEngineImpl index(final SkosEngineImpl.IndexLayout layout, final String model) throws IOException {
+        return this.index(layout, model, null);
+    }
+
+    private SkosEngineImpl index(final SkosEngineImpl.IndexLayout layout, final String model, final File registry) throws IOException {
+        SkosEngineImpl engine = new SkosEngineImpl(this.folder.newFolder(), new DefaultNormalizer());
+        engine.setIndexLayout(layout);
+        engine.setConceptIdRegistry(registry);
+        engine.indexModel(new ByteArrayInputStream(model.getBytes(StandardCharsets.UTF_8)), "N3");
+        engine.createSearch();
+        return engine;
+    }
+
+    @Test
+    public void testRelationsToResourcesThatAreNotConcepts() throws IOException {
+        String model = label("Science", "Science") + label("Knowledge", "Knowledge") + statement("Science", "broader", "Knowledge")
+                + statement("Science", "broader", "Unlabelled") + statement("Science", "related", "Unlabelled");
+
+        try (SkosEngineImpl engine = this.index(SkosEngineImpl.IndexLayout.FULL, model)) {
+            assertEquals(Arrays.asList(uri("Knowledge"), uri("Unlabelled")), engine.getBroaderConcepts(uri("Science")));
+            assertEquals(Arrays.asList(uri("Unlabelled")), engine.getRelatedConcepts(uri("Science")));
+            assertArrayEquals(new int[] { engine.getConceptId(uri("Knowledge")) }, engine.getBroaderConceptIds(engine.getConceptId(uri("Science"))));
+            assertEquals(-1, engine.getConceptId(uri("Unlabelled")));
+        }
+
+        // the lookup layout does not store the relations, so only the concepts of the index are returned
+        try (SkosEngineImpl engine = this.index(SkosEngineImpl.IndexLayout.LOOKUP, model)) {
+            assertEquals(Arrays.asList(uri("Knowledge")), engine.getBroaderConcepts(uri("Science")));
+            assertEquals(Arrays.asList(), engine.getRelatedConcepts(uri("Science")));
+        }
+    }
+
+    @Test
+    public void testMaxLabelTokensAfterUpdate() throws IOException {
+        // more than 9 tokens, so the maximum does not fit in a digit
+        String longLabel = "alpha beta gamma delta epsilon zeta eta theta iota kappa lambda mu";
+        String model = label("Long", longLabel) + label("Alpha", "alpha") + label("BetaGamma", "beta gamma");
+
+        File dir = this.folder.newFolder();
+        try (SkosEngineImpl engine = new SkosEngineImpl(dir, new DefaultNormalizer())) {
+            engine.indexModel(new ByteArrayInputStream(model.getBytes(StandardCharsets.UTF_8)), "N3");
+            engine.createSearch();
+            assertEquals(12, engine.getMaxLabelTokens());
+            assertEquals(12, engine.getMaxLabelTokens("alpha"));
+            assertEquals(2, engine.getMaxLabelTokens("beta"));
+            assertEquals(0, engine.getMaxLabelTokens("gamma"));
+
+            // the longest label is deleted by the update
+            String update = label("Alpha", "alpha") + label("BetaGamma", "beta gamma");
+            Callable<InputStream> input = () -> new ByteArrayInputStream(update.getBytes(StandardCharsets.UTF_8));
+            engine.updateModels(Collections.singletonList(input), "N3");
+            engine.refresh();
+            assertEquals(2, engine.getMaxLabelTokens());
+            assertEquals(1, engine.getMaxLabelTokens("alpha"));
+        }
+
+        // the lengths stored with the index are read back
+        try (SkosEngineImpl engine = new SkosEngineImpl(dir, new DefaultNormalizer())) {
+            engine.createSearch();
+            assertEquals(2, engine.getMaxLabelTokens());
+            assertEquals(2, engine.getMaxLabelTokens("beta"));
+        }
+    }
+
+    @Test
+    public void testRegisteredConceptIdsAcrossViews() throws IOException {
+        File registry = this.folder.newFolder();
+        String model = label("Alpha", "alpha") + label("Beta", "beta");
+
+        try (SkosEngineImpl engine = this.index(SkosEngineImpl.IndexLayout.LOOKUP, model, registry)) {
+            Map<String, int[]> before = engine.getRegisteredConceptIds(Arrays.asList("alpha", "beta"));
+            assertArrayEquals(new int[] { 0 }, before.get("alpha"));
+            assertArrayEquals(new int[] { 1 }, before.get("beta"));
+            int betaDoc = engine.getConceptId(uri("Beta"));
+
+            // Alpha is deleted and Beta rewritten, so Beta gets another document id in the new view
+            String update = label("Gamma", "gamma") + label("Beta", "beta") + statement("Beta", "broader", "Gamma");
+            Callable<InputStream> input = () -> new ByteArrayInputStream(update.getBytes(StandardCharsets.UTF_8));
+            engine.updateModels(Collections.singletonList(input), "N3");
+            engine.refresh();
+            assertNotEquals(betaDoc, engine.getConceptId(uri("Beta")));
+
+            Map<String, int[]> after = engine.getRegisteredConceptIds(Arrays.asList("alpha", "beta", "gamma"));
+            assertFalse(after.containsKey("alpha"));
+            assertArrayEquals(new int[] { 1 }, after.get("beta"));
+            assertArrayEquals(new int[] { 2 }, after.get("gamma"));
+        }
+
+        try (Directory dir = FSDirectory.open(registry.toPath()); ConceptDictionary dictionary = ConceptDictionary.open(dir)) {
+            assertEquals(3, dictionary.size());
+            assertEquals(uri("Alpha"), dictionary.getUri(0));
+            assertEquals(uri("Beta"), dictionary.getUri(1));
+            assertEquals(uri("Gamma"), dictionary.getUri(2));
+        }
+
+        // a new index of the same concepts keeps their ids
+        try (SkosEngineImpl engine = this.index(SkosEngineImpl.IndexLayout.FULL, label("Gamma", "gamma") + label("Delta", "delta"), registry)) {
+            Map<String, int[]> ids = engine.getRegisteredConceptIds(Arrays.asList("gamma", "delta"));
+            assertArrayEquals(new int[] { 2 }, ids.get("gamma"));
+            assertArrayEquals(new int[] { 3 }, ids.get("delta"));
+        }
+    }
+
+    @Test
+    public void testRegisteredConceptIdsWithoutRegistry() throws IOException {
+        try (SkosEngineImpl engine = this.index(SkosEngineImpl.IndexLayout.LOOKUP, label("Alpha", "alpha"))) {
+            engine.getRegisteredConceptIds(Arrays.asList("alpha"));
+            fail("Registry ids returned without a registry");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+    }
+
+}
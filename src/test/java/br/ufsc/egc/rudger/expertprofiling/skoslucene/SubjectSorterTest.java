@@ -0,0 +1,105 @@
+package br.ufsc.egc.rudger.expertprofiling.skoslucene;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+/**
+ * Checks the merge of the runs spilled by the {@link SubjectSorter} against the sort of a single buffer.
+ */
+public class SubjectSorterTest {
+
+    private static final int PROPERTIES = 4;
+
+    /**
+     * Adds the same statements to a sorter with the given buffer size and returns what it hands over
+     */
+    private static List<String> sort(final List<Object[]> statements, final long maxBufferBytes, final int minRuns) throws IOException {
+        List<String> subjects = new ArrayList<>();
+        try (SubjectSorter sorter = new SubjectSorter(PROPERTIES, maxBufferBytes)) {
+            for (Object[] statement : statements) {
+                sorter.add((String) statement[0], (Integer) statement[1], (String) statement[2]);
+            }
+            assertTrue(sorter.getRunCount() + " runs", sorter.getRunCount() >= minRuns);
+
+            sorter.sort((subject, values) -> subjects.add(subject + " " + values));
+        }
+        return subjects;
+    }
+
+    private static char[] repeat(final char c, final int length) {
+        char[] chars = new char[length];
+        Arrays.fill(chars, c);
+        return chars;
+    }
+
+    @Test
+    public void testRunsMergeAsOneBuffer() throws IOException {
+        Random random = new Random(42);
+        List<Object[]> statements = new ArrayList<>();
+        for (int i = 0; i < 5000; i++) {
+            // few subjects, so most of them are split across runs, with duplicate values
+            String subject = "http://dbpedia.org/resource/Category:" + random.nextInt(200);
+            statements.add(new Object[] { subject, random.nextInt(PROPERTIES), "value " + random.nextInt(50) });
+        }
+
+        List<String> expected = sort(statements, Long.MAX_VALUE, 0);
+        List<String> actual = sort(statements, 4096, 10);
+        assertEquals(expected, actual);
+    }
+
+    @Test
+    public void testValuesKeepTheInputOrderAcrossRuns() throws IOException {
+        List<Object[]> statements = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            statements.add(new Object[] { "b", 0, "value " + i });
+            statements.add(new Object[] { "a", 1, "value " + (99 - i) });
+        }
+
+        List<String> subjects = new ArrayList<>();
+        try (SubjectSorter sorter = new SubjectSorter(PROPERTIES, 1024)) {
+            for (Object[] statement : statements) {
+                sorter.add((String) statement[0], (Integer) statement[1], (String) statement[2]);
+            }
+            assertTrue(sorter.getRunCount() > 1);
+
+            sorter.sort((subject, values) -> {
+                subjects.add(subject);
+
+                List<String> expected = new ArrayList<>();
+                for (int i = 0; i < 100; i++) {
+                    expected.add("value " + ("a".equals(subject) ? 99 - i : i));
+                }
+                Set<String> stated = values.get("a".equals(subject) ? 1 : 0);
+                assertEquals(expected, new ArrayList<>(stated));
+            });
+        }
+        assertEquals(Arrays.asList("a", "b"), subjects);
+    }
+
+    @Test
+    public void testValuesLongerThan64Kb() throws IOException {
+        String longValue = new String(repeat('\u00e7', 100000));
+        String longSubject = "http://dbpedia.org/resource/Category:" + new String(repeat('x', 70000));
+
+        List<Object[]> statements = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            statements.add(new Object[] { "s" + i, 0, longValue + i });
+            statements.add(new Object[] { longSubject, 2, "value " + i });
+        }
+
+        List<String> expected = sort(statements, Long.MAX_VALUE, 0);
+        List<String> actual = sort(statements, 1, statements.size());
+        assertEquals(expected, actual);
+        assertEquals(11, actual.size());
+    }
+
+}